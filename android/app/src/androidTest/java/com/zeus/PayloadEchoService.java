@@ -0,0 +1,90 @@
+package app.zeusln.zeus;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Answers MSG_PAYLOAD with a payload of the requested size, either inline in
+ * the Bundle or through LndMobilePayloads' SharedMemory path. Runs in its own
+ * process so that replies cross binder the way LndMobileService's responses
+ * would if it ran out of the app's process.
+ */
+public class PayloadEchoService extends Service {
+  static final int MSG_PAYLOAD = 1;
+  static final int MSG_PAYLOAD_RESULT = 2;
+
+  static final int MODE_INLINE = 0;
+  static final int MODE_SHARED_MEMORY = 1;
+
+  private final Map<Integer, byte[]> payloads = new HashMap<>();
+  private HandlerThread handlerThread;
+  private Messenger messenger;
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    LndMobilePayloads.setServiceInProcess(false);
+    handlerThread = new HandlerThread("PayloadEchoService");
+    handlerThread.start();
+    messenger = new Messenger(new Handler(handlerThread.getLooper()) {
+      @Override
+      public void handleMessage(Message msg) {
+        if (msg.what != MSG_PAYLOAD) {
+          return;
+        }
+        int size = msg.arg1;
+        byte[] bytes = payloads.get(size);
+        if (bytes == null) {
+          bytes = new byte[size];
+          new Random(size).nextBytes(bytes);
+          payloads.put(size, bytes);
+        }
+
+        Message reply = Message.obtain(null, MSG_PAYLOAD_RESULT, size, msg.arg2);
+        Bundle bundle = new Bundle();
+        if (msg.arg2 == MODE_SHARED_MEMORY) {
+          LndMobilePayloads.putPayload(bundle, "response", bytes);
+        } else {
+          bundle.putByteArray("response", bytes);
+        }
+        reply.setData(bundle);
+        try {
+          msg.replyTo.send(reply);
+        } catch (RemoteException e) {
+          // TransactionTooLargeException for inline payloads past the binder limit
+          Message error = Message.obtain(null, MSG_PAYLOAD_RESULT, size, msg.arg2);
+          Bundle errorBundle = new Bundle();
+          errorBundle.putString("error", e.getClass().getSimpleName());
+          error.setData(errorBundle);
+          try {
+            msg.replyTo.send(error);
+          } catch (RemoteException ignored) {
+            // The client is gone
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public IBinder onBind(Intent intent) {
+    return messenger.getBinder();
+  }
+
+  @Override
+  public void onDestroy() {
+    handlerThread.quitSafely();
+    super.onDestroy();
+  }
+}
@@ -0,0 +1,124 @@
+package app.zeusln.zeus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.ServiceTestRule;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares how long a response takes to get from another process into a
+ * byte[] in this one, inline in the Bundle against LndMobilePayloads'
+ * SharedMemory path, at 100KB, 1MB and 10MB.
+ *
+ *   ./gradlew :app:connectedDebugAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=app.zeusln.zeus.PayloadTransportBenchmarkTest
+ *
+ * Medians are logged under the PayloadTransport tag and reported as
+ * instrumentation status. Inline payloads past the binder limit are reported
+ * as failed rather than timed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PayloadTransportBenchmarkTest {
+  private static final String TAG = "PayloadTransport";
+
+  private static final int[] SIZES = { 100 * 1024, 1024 * 1024, 10 * 1024 * 1024 };
+  private static final int WARMUP = 3;
+  private static final int ITERATIONS = 20;
+  private static final long REPLY_TIMEOUT_MS = 10 * 1000;
+
+  @Rule
+  public final ServiceTestRule serviceRule = new ServiceTestRule();
+
+  private final BlockingQueue<Message> replies = new LinkedBlockingQueue<>();
+  private HandlerThread handlerThread;
+  private Messenger service;
+  private Messenger replyTo;
+
+  @Before
+  public void setUp() throws Exception {
+    handlerThread = new HandlerThread("PayloadTransportBenchmark");
+    handlerThread.start();
+    replyTo = new Messenger(new Handler(handlerThread.getLooper()) {
+      @Override
+      public void handleMessage(Message msg) {
+        // Copied, msg is recycled once this returns
+        replies.add(Message.obtain(msg));
+      }
+    });
+    Intent intent = new Intent(InstrumentationRegistry.getInstrumentation().getTargetContext(), PayloadEchoService.class);
+    service = new Messenger(serviceRule.bindService(intent));
+  }
+
+  @After
+  public void tearDown() {
+    handlerThread.quitSafely();
+  }
+
+  @Test
+  public void compareInlineAndSharedMemory() throws Exception {
+    Bundle results = new Bundle();
+    for (int size : SIZES) {
+      for (int mode : new int[] { PayloadEchoService.MODE_INLINE, PayloadEchoService.MODE_SHARED_MEMORY }) {
+        String name = (mode == PayloadEchoService.MODE_INLINE ? "inline" : "sharedMemory") + "_" + (size / 1024) + "KB";
+        long median = measure(size, mode);
+        if (median < 0) {
+          Log.i(TAG, name + ": failed");
+          results.putString(name, "failed");
+          // Only inline payloads may hit the binder limit
+          assertEquals(PayloadEchoService.MODE_INLINE, mode);
+        } else {
+          Log.i(TAG, name + ": " + (median / 1000) + "us median of " + ITERATIONS);
+          results.putLong(name + "_us", median / 1000);
+        }
+      }
+    }
+    InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+  }
+
+  // Median ns from send to payload bytes in hand, or -1 if the payload didn't make it
+  private long measure(int size, int mode) throws Exception {
+    long[] samples = new long[ITERATIONS];
+    for (int i = -WARMUP; i < ITERATIONS; i++) {
+      Message request = Message.obtain(null, PayloadEchoService.MSG_PAYLOAD, size, mode);
+      request.replyTo = replyTo;
+      long start = SystemClock.elapsedRealtimeNanos();
+      service.send(request);
+      Message reply = replies.poll(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      assertNotNull("No reply for " + size + " bytes", reply);
+      Bundle bundle = reply.getData();
+      if (bundle.containsKey("error")) {
+        return -1;
+      }
+      byte[] bytes = LndMobilePayloads.getPayload(bundle, "response");
+      long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+      assertEquals(size, bytes.length);
+      if (i >= 0) {
+        samples[i] = elapsed;
+      }
+    }
+    Arrays.sort(samples);
+    return samples[ITERATIONS / 2];
+  }
+}
@@ -0,0 +1,147 @@
+package app.zeusln.zeus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in for lndmobile that answers every call from memory, for load
+ * testing LndMobileService without a node or network.
+ *
+ * Methods lndmobile knows keep their kind; any other method starting with
+ * "Subscribe" is a server stream and everything else is unary. Like lndmobile,
+ * it calls back from a small pool of threads, with a fresh byte array for
+ * every response.
+ */
+final class FakeLndBackend extends LndBackend {
+  static final class Config {
+    // Delay before each unary response and bidi echo, plus up to jitterMicros more
+    long latencyMicros = 500;
+    long jitterMicros = 500;
+    int responseBytes = 256;
+    // Per stream; 0 opens streams that never send
+    int streamEventsPerSecond = 100;
+    // Share of unary calls that fail with an Unavailable error
+    double errorRate = 0;
+    int threads = 4;
+  }
+
+  private static final class Stream {
+    final lndmobile.RecvStream stream;
+    final ScheduledFuture<?> events;
+
+    Stream(lndmobile.RecvStream stream, ScheduledFuture<?> events) {
+      this.stream = stream;
+      this.events = events;
+    }
+  }
+
+  private final Config config;
+  private final byte[] response;
+  private final ScheduledThreadPoolExecutor scheduler;
+  private final List<Stream> streams = new ArrayList<>();
+
+  FakeLndBackend(Config config) {
+    this.config = config;
+    this.response = new byte[config.responseBytes];
+    new Random(1).nextBytes(response);
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    scheduler = new ScheduledThreadPoolExecutor(config.threads, runnable -> {
+      Thread thread = new Thread(runnable, "FakeLnd-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.setRemoveOnCancelPolicy(true);
+  }
+
+  @Override
+  int kindOf(String method) {
+    int kind = LndMobileDispatcher.kindOf(method);
+    if (kind != LndMobileDispatcher.UNKNOWN) {
+      return kind;
+    }
+    return method.startsWith("Subscribe") ? LndMobileDispatcher.SERVER_STREAM : LndMobileDispatcher.UNARY;
+  }
+
+  @Override
+  boolean unary(String method, byte[] payload, final lndmobile.Callback callback) {
+    if (kindOf(method) != LndMobileDispatcher.UNARY) {
+      return false;
+    }
+    final boolean fail = config.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < config.errorRate;
+    scheduler.schedule(() -> {
+      if (fail) {
+        callback.onError(new Exception("rpc error: code = Unavailable desc = fake lnd error"));
+      } else {
+        callback.onResponse(response.clone());
+      }
+    }, delayMicros(), TimeUnit.MICROSECONDS);
+    return true;
+  }
+
+  @Override
+  boolean serverStream(String method, byte[] payload, final lndmobile.RecvStream stream) {
+    if (kindOf(method) != LndMobileDispatcher.SERVER_STREAM) {
+      return false;
+    }
+    ScheduledFuture<?> events = null;
+    if (config.streamEventsPerSecond > 0) {
+      long period = Math.max(1, 1000000L / config.streamEventsPerSecond);
+      events = scheduler.scheduleAtFixedRate(() -> stream.onResponse(response.clone()), period, period, TimeUnit.MICROSECONDS);
+    }
+    synchronized (streams) {
+      streams.add(new Stream(stream, events));
+    }
+    return true;
+  }
+
+  @Override
+  lndmobile.SendStream bidiStream(String method, final lndmobile.RecvStream stream) {
+    if (kindOf(method) != LndMobileDispatcher.BIDI_STREAM) {
+      return null;
+    }
+    synchronized (streams) {
+      streams.add(new Stream(stream, null));
+    }
+    // Echoes every write back as a response
+    return new lndmobile.SendStream() {
+      @Override
+      public void send(final byte[] bytes) {
+        scheduler.schedule(() -> stream.onResponse(bytes), delayMicros(), TimeUnit.MICROSECONDS);
+      }
+
+      @Override
+      public void stop() {}
+    };
+  }
+
+  /**
+   * Ends all streams with a Canceled error, as lnd does when it shuts down,
+   * and stops answering.
+   */
+  void shutdown() {
+    List<Stream> open;
+    synchronized (streams) {
+      open = new ArrayList<>(streams);
+      streams.clear();
+    }
+    for (Stream stream : open) {
+      if (stream.events != null) {
+        stream.events.cancel(false);
+      }
+      stream.stream.onError(new Exception("rpc error: code = Canceled desc = fake lnd shut down"));
+    }
+    scheduler.shutdownNow();
+  }
+
+  private long delayMicros() {
+    long jitter = config.jitterMicros > 0 ? ThreadLocalRandom.current().nextLong(config.jitterMicros + 1) : 0;
+    return config.latencyMicros + jitter;
+  }
+}
@@ -0,0 +1,254 @@
+package app.zeusln.zeus;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Drives unary calls and server streams through LndMobileService the way
+ * LndMobile does, over its Messenger, and reports throughput, latency and
+ * memory use. Meant to run against FakeLndBackend, see LoadTestReceiver.
+ *
+ * Unary calls are sent open loop at a fixed rate, so a slow service shows up
+ * as growing latency rather than as a lower send rate. Calls that would take
+ * the number in flight past maxInFlight are skipped and counted as dropped.
+ */
+final class LndMobileLoadGenerator {
+  private static final long CONNECT_TIMEOUT_MS = 10000;
+  private static final long DRAIN_TIMEOUT_MS = 5000;
+  private static final long TICK_NANOS = 1000000;
+  private static final long MEMORY_SAMPLE_NANOS = 100000000;
+
+  static final class Options {
+    int durationSeconds = 10;
+    int callsPerSecond = 2000;
+    int maxInFlight = 2000;
+    int requestBytes = 64;
+    int streams = 4;
+    // Neither cached nor coalesced by the service, so every call reaches the backend
+    String unaryMethod = "FakeUnary";
+    String streamMethod = "SubscribeFake";
+  }
+
+  private final Context context;
+  private final Options options;
+
+  private final ConcurrentHashMap<Integer, Long> inFlight = new ConcurrentHashMap<>();
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong streamEvents = new AtomicLong();
+  private final AtomicLong streamErrors = new AtomicLong();
+  private final CountDownLatch registered = new CountDownLatch(1);
+
+  LndMobileLoadGenerator(Context context, Options options) {
+    this.context = context.getApplicationContext();
+    this.options = options;
+  }
+
+  /**
+   * Runs for options.durationSeconds and returns the report. Blocks the calling thread.
+   */
+  JSONObject run() throws InterruptedException, RemoteException, JSONException {
+    HandlerThread replyThread = new HandlerThread("LoadGeneratorReplies");
+    replyThread.start();
+    Messenger replyTo = new Messenger(new Handler(replyThread.getLooper(), this::onReply));
+
+    final CountDownLatch connected = new CountDownLatch(1);
+    final Messenger[] service = new Messenger[1];
+    ServiceConnection connection = new ServiceConnection() {
+      @Override
+      public void onServiceConnected(ComponentName name, IBinder binder) {
+        service[0] = new Messenger(binder);
+        connected.countDown();
+      }
+
+      @Override
+      public void onServiceDisconnected(ComponentName name) {}
+    };
+
+    try {
+      if (!context.bindService(new Intent(context, LndMobileService.class), connection, Context.BIND_AUTO_CREATE)
+          || !connected.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        throw new IllegalStateException("Could not bind LndMobileService");
+      }
+      Messenger lndMobileService = service[0];
+
+      Message register = Message.obtain(null, LndMobileService.MSG_REGISTER_CLIENT, 0, 0);
+      register.replyTo = replyTo;
+      lndMobileService.send(register);
+      if (!registered.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        throw new IllegalStateException("LndMobileService did not acknowledge registration");
+      }
+
+      try {
+        return drive(lndMobileService, replyTo);
+      } finally {
+        Message unregister = Message.obtain(null, LndMobileService.MSG_UNREGISTER_CLIENT, 0, 0);
+        unregister.replyTo = replyTo;
+        lndMobileService.send(unregister);
+      }
+    } finally {
+      context.unbindService(connection);
+      replyThread.quitSafely();
+    }
+  }
+
+  private JSONObject drive(Messenger lndMobileService, Messenger replyTo) throws InterruptedException, RemoteException, JSONException {
+    Runtime runtime = Runtime.getRuntime();
+    runtime.gc();
+    long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+    long nativeBefore = Debug.getNativeHeapAllocatedSize();
+    long gcBefore = gcCount();
+    long heapPeak = heapBefore;
+
+    // A distinct payload per stream, so each is its own upstream in the service's StreamHub
+    for (int i = 0; i < options.streams; i++) {
+      lndMobileService.send(streamMessage(LndMobileService.MSG_GRPC_STREAM_COMMAND, i, replyTo));
+    }
+
+    byte[] payload = new byte[options.requestBytes];
+    long sent = 0;
+    long dropped = 0;
+    int request = 1;
+    long start = System.nanoTime();
+    long end = start + options.durationSeconds * 1000000000L;
+    long nextSample = start;
+    long now;
+    while ((now = System.nanoTime()) < end) {
+      long due = (now - start) * options.callsPerSecond / 1000000000L - sent - dropped;
+      for (long i = 0; i < due; i++) {
+        if (inFlight.size() >= options.maxInFlight) {
+          dropped++;
+          continue;
+        }
+        Message message = Message.obtain(null, LndMobileService.MSG_GRPC_COMMAND, request, 0);
+        message.replyTo = replyTo;
+        Bundle bundle = new Bundle();
+        bundle.putString("method", options.unaryMethod);
+        LndMobilePayloads.putPayload(bundle, "payload", payload);
+        message.setData(bundle);
+        inFlight.put(request, System.nanoTime());
+        lndMobileService.send(message);
+        request++;
+        sent++;
+      }
+      if (now >= nextSample) {
+        heapPeak = Math.max(heapPeak, runtime.totalMemory() - runtime.freeMemory());
+        nextSample = now + MEMORY_SAMPLE_NANOS;
+      }
+      LockSupport.parkNanos(TICK_NANOS);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long events = streamEvents.get();
+
+    for (int i = 0; i < options.streams; i++) {
+      lndMobileService.send(streamMessage(LndMobileService.MSG_GRPC_STREAM_UNSUBSCRIBE, i, replyTo));
+    }
+    long drainUntil = System.nanoTime() + DRAIN_TIMEOUT_MS * 1000000L;
+    while (!inFlight.isEmpty() && System.nanoTime() < drainUntil) {
+      Thread.sleep(10);
+    }
+    heapPeak = Math.max(heapPeak, runtime.totalMemory() - runtime.freeMemory());
+
+    JSONObject report = new JSONObject();
+    report.put("durationSeconds", seconds);
+    report.put("targetCallsPerSecond", options.callsPerSecond);
+    report.put("sent", sent);
+    report.put("completed", completed.get());
+    report.put("errors", errors.get());
+    report.put("dropped", dropped);
+    report.put("unanswered", inFlight.size());
+    report.put("callsPerSecond", completed.get() / seconds);
+    report.put("latencyMs", latencyJson());
+    report.put("streams", options.streams);
+    report.put("streamEvents", events);
+    report.put("streamEventsPerSecond", events / seconds);
+    report.put("streamErrors", streamErrors.get());
+    report.put("heapBeforeBytes", heapBefore);
+    report.put("heapPeakBytes", heapPeak);
+    report.put("heapAfterBytes", runtime.totalMemory() - runtime.freeMemory());
+    report.put("nativeHeapBeforeBytes", nativeBefore);
+    report.put("nativeHeapAfterBytes", Debug.getNativeHeapAllocatedSize());
+    report.put("gcCount", gcCount() - gcBefore);
+    return report;
+  }
+
+  private boolean onReply(Message msg) {
+    switch (msg.what) {
+      case LndMobileService.MSG_REGISTER_CLIENT_ACK:
+        registered.countDown();
+        break;
+
+      case LndMobileService.MSG_GRPC_COMMAND_RESULT: {
+        Long sentAt = inFlight.remove(msg.arg1);
+        if (sentAt != null) {
+          latency.recordNanos(System.nanoTime() - sentAt);
+          completed.incrementAndGet();
+          if (msg.getData().containsKey("error_code")) {
+            errors.incrementAndGet();
+          }
+        }
+        break;
+      }
+
+      case LndMobileService.MSG_GRPC_STREAM_RESULT:
+        if (msg.getData().containsKey("error_code")) {
+          streamErrors.incrementAndGet();
+        } else {
+          streamEvents.incrementAndGet();
+        }
+        break;
+    }
+    return true;
+  }
+
+  private Message streamMessage(int what, int stream, Messenger replyTo) {
+    Message message = Message.obtain(null, what, 0, 0);
+    message.replyTo = replyTo;
+    Bundle bundle = new Bundle();
+    bundle.putString("method", options.streamMethod);
+    LndMobilePayloads.putPayload(bundle, "payload", ByteBuffer.allocate(4).putInt(stream).array());
+    bundle.putInt("replay", 0);
+    message.setData(bundle);
+    return message;
+  }
+
+  private JSONObject latencyJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("p50", latency.percentile(50) / 1e3);
+    json.put("p90", latency.percentile(90) / 1e3);
+    json.put("p99", latency.percentile(99) / 1e3);
+    json.put("p999", latency.percentile(99.9) / 1e3);
+    json.put("max", latency.percentile(100) / 1e3);
+    return json;
+  }
+
+  private static long gcCount() {
+    String count = Debug.getRuntimeStat("art.gc.gc-count");
+    try {
+      return count != null ? Long.parseLong(count) : 0;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
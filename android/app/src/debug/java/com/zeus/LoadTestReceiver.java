@@ -0,0 +1,73 @@
+package app.zeusln.zeus;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.json.JSONObject;
+
+/**
+ * Runs LndMobileLoadGenerator against FakeLndBackend in debug builds:
+ *
+ *   adb shell am broadcast -a app.zeusln.zeus.LOAD_TEST -n app.zeusln.zeus/.LoadTestReceiver \
+ *     --ei calls_per_second 5000 --ei duration_seconds 20 --ei streams 8 --ei stream_rate 500
+ *
+ * The report is logged under the LoadTest tag and written to files/lnd-load-test.json.
+ * While the test runs every lnd call in the process goes to the fake, so run it
+ * without lnd started.
+ */
+public class LoadTestReceiver extends BroadcastReceiver {
+  private static final String TAG = "LoadTest";
+  static final String REPORT_FILE_NAME = "lnd-load-test.json";
+
+  private static final AtomicBoolean running = new AtomicBoolean(false);
+
+  @Override
+  public void onReceive(Context context, Intent intent) {
+    if (!running.compareAndSet(false, true)) {
+      Log.w(TAG, "A load test is already running");
+      return;
+    }
+
+    final Context appContext = context.getApplicationContext();
+
+    final LndMobileLoadGenerator.Options options = new LndMobileLoadGenerator.Options();
+    options.durationSeconds = intent.getIntExtra("duration_seconds", options.durationSeconds);
+    options.callsPerSecond = intent.getIntExtra("calls_per_second", options.callsPerSecond);
+    options.maxInFlight = intent.getIntExtra("max_in_flight", options.maxInFlight);
+    options.requestBytes = intent.getIntExtra("request_bytes", options.requestBytes);
+    options.streams = intent.getIntExtra("streams", options.streams);
+
+    final FakeLndBackend.Config config = new FakeLndBackend.Config();
+    config.latencyMicros = intent.getLongExtra("latency_us", config.latencyMicros);
+    config.jitterMicros = intent.getLongExtra("jitter_us", config.jitterMicros);
+    config.responseBytes = intent.getIntExtra("response_bytes", config.responseBytes);
+    config.streamEventsPerSecond = intent.getIntExtra("stream_rate", config.streamEventsPerSecond);
+    config.errorRate = intent.getFloatExtra("error_rate", (float) config.errorRate);
+
+    // Runs for longer than a receiver may block
+    new Thread(() -> {
+      FakeLndBackend backend = new FakeLndBackend(config);
+      LndBackend.set(backend);
+      try {
+        JSONObject report = new LndMobileLoadGenerator(appContext, options).run();
+        Log.i(TAG, report.toString(2));
+        try (FileOutputStream out = new FileOutputStream(new File(appContext.getFilesDir(), REPORT_FILE_NAME))) {
+          out.write(report.toString().getBytes(StandardCharsets.UTF_8));
+        }
+      } catch (Exception e) {
+        Log.e(TAG, "Load test failed", e);
+      } finally {
+        LndBackend.set(null);
+        backend.shutdown();
+        running.set(false);
+      }
+    }, "LoadTest").start();
+  }
+}
@@ -17,10 +17,10 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
     private var builder: Builder? = null
     @Volatile private var node: Node? = null
     private val nodeLock = Any()
-    // Dual-store build thread that outlived its timeout — still blocked in
+    // Dual-store build job that outlived its timeout — still blocked in
     // the FFI call. A new build must not touch the same storage dir until
     // it finishes and cleans up after itself.
-    @Volatile private var pendingDualBuildThread: Thread? = null
+    @Volatile private var pendingDualBuild: java.util.concurrent.Future<*>? = null
     private var logFileObserver: LogFileObserver? = null
 
     // Stored config values for building with custom Config
@@ -364,10 +364,10 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
                 this@LdkNodeModule.node = null
                 try { existingNode.stop() } catch (_: Exception) { /* already released */ }
                 val existingRef = existingNode // prevent lambda capture optimization
-                Thread {
+                NativeJobExecutor.get().submitDedicated("ldkNodeRelease", NativeJobExecutor.PRIORITY_BACKGROUND) {
                     Thread.sleep(2000)
                     existingRef.hashCode() // prevent GC before sleep finishes
-                }.start()
+                }
             }
         }
 
@@ -379,18 +379,18 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
                 // after its timeout was rejected. It stops its node and removes
                 // the storage dir when it finishes — starting another build over
                 // the same path before then would race that cleanup.
-                this@LdkNodeModule.pendingDualBuildThread?.let { prev ->
-                    if (prev.isAlive) {
+                this@LdkNodeModule.pendingDualBuild?.let { prev ->
+                    if (!prev.isDone) {
                         Log.w("LdkNodeModule", "buildNode: waiting up to 10s for a previous dual-store build to finish")
-                        prev.join(10_000)
-                        if (prev.isAlive) {
+                        try { prev.get(10_000, java.util.concurrent.TimeUnit.MILLISECONDS) } catch (_: Exception) { /* checked below */ }
+                        if (!prev.isDone) {
                             withContext(Dispatchers.Main) {
                                 promise.reject("build_in_progress", "A previous node build is still waiting on the VSS server. Please wait a moment and try again.")
                             }
                             return@launch
                         }
                     }
-                    this@LdkNodeModule.pendingDualBuildThread = null
+                    this@LdkNodeModule.pendingDualBuild = null
                 }
 
                 // Always create a Config with anchor channels enabled to ensure proper channel type negotiation
@@ -426,20 +426,20 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
                         val dualBuilder = Builder.fromConfig(config)
                         applyBuilderSettings(dualBuilder)
 
-                        // Use a real thread + CountDownLatch since the native JNI call
+                        // Use a native job + CountDownLatch since the native JNI call
                         // blocks and doesn't cooperate with coroutine cancellation
                         var dualNode: Node? = null
                         var dualBuildError: Exception? = null
                         val latch = java.util.concurrent.CountDownLatch(1)
                         // Whoever wins the CAS owns the result: the build thread on
                         // completion (caller uses it), or the caller on timeout (the
-                        // thread is orphaned and must clean up after itself).
+                        // job is orphaned and must clean up after itself).
                         val resultClaimed = java.util.concurrent.atomic.AtomicBoolean(false)
                         val dualStoreStartMs = System.currentTimeMillis()
                         val failHard = this@LdkNodeModule.storedVssFailOnError
                         val storageDirPath = config.storageDirPath
 
-                        val dualThread = Thread {
+                        val dualBuild = NativeJobExecutor.get().submitDedicated("ldkDualStoreBuild", NativeJobExecutor.PRIORITY_DEFAULT) {
                             val ffiStartMs = System.currentTimeMillis()
                             Log.d("LdkNodeModule", "[timing] FFI buildWithDualStore starting")
                             try {
@@ -455,7 +455,7 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
                             // and moved on — this build is orphaned. Stop the node,
                             // and on the hard-fail (restore) path remove the storage
                             // dir it may have partially written so a retry starts
-                            // clean. This runs here because only this thread knows
+                            // clean. This runs here because only this job knows
                             // when the blocking FFI call has actually finished.
                             if (!resultClaimed.compareAndSet(false, true)) {
                                 val totalMs = System.currentTimeMillis() - dualStoreStartMs
@@ -466,18 +466,22 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
                                 }
                             }
                         }
-                        dualThread.start()
-                        this@LdkNodeModule.pendingDualBuildThread = dualThread
+                        // A job the long-running pool turned away never counts down
+                        NativeJobExecutor.whenRejected(dualBuild) {
+                            dualBuildError = java.util.concurrent.RejectedExecutionException("Too many long-running native jobs to build the node")
+                            latch.countDown()
+                        }
+                        this@LdkNodeModule.pendingDualBuild = dualBuild
 
                         var completed = latch.await(this@LdkNodeModule.storedVssBuildTimeoutSeconds, java.util.concurrent.TimeUnit.SECONDS)
                         if (!completed && !resultClaimed.compareAndSet(false, true)) {
                             // The FFI finished in the instant between the await timing
-                            // out and our claim — the thread won't clean up, so take
+                            // out and our claim — the job won't clean up, so take
                             // the result after all.
                             completed = true
                         }
                         if (completed) {
-                            this@LdkNodeModule.pendingDualBuildThread = null
+                            this@LdkNodeModule.pendingDualBuild = null
                         }
                         if (!completed) {
                             vssBuildPending = true
@@ -504,7 +508,7 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
                     this@LdkNodeModule.builder = null
                     // A failed build can leave a partial local DB that would
                     // shadow VSS on retry. On a fast failure remove it now; on
-                    // timeout the still-running build thread removes it once
+                    // timeout the still-running build job removes it once
                     // the FFI call returns.
                     if (!vssBuildPending) {
                         try { java.io.File(this@LdkNodeModule.storedStorageDirPath).deleteRecursively() } catch (_: Exception) {}
@@ -666,14 +670,14 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
         // Stop the foreground service
         LdkNodeService.stopService(reactApplicationContext)
 
-        // Stop the node on a dedicated (non-Tokio) thread and resolve
+        // Stop the node on a dedicated native job (non-Tokio) thread and resolve
         // after it completes. This ensures callers can safely delete wallet
         // files or start a new node after stop() resolves.
         // Keep the reference alive briefly after stop() so that internal
         // Tokio tasks can drop their Arc refs before ours — preventing the
         // Runtime-dropped-on-worker panic.
         val nodeRef = node
-        Thread {
+        val stopJob = NativeJobExecutor.get().submitDedicated("ldkNodeStop", NativeJobExecutor.PRIORITY_DEFAULT) {
             try { nodeRef.stop() } catch (_: Exception) { /* may not have been started */ }
             // Resolve on main thread after stop completes
             reactApplicationContext.runOnUiQueueThread {
@@ -682,7 +686,12 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
             // Hold the reference for 2s to let Tokio tasks finish cleanup
             Thread.sleep(2000)
             nodeRef.hashCode() // prevent GC from collecting before sleep finishes
-        }.start()
+        }
+        NativeJobExecutor.whenRejected(stopJob) {
+            reactApplicationContext.runOnUiQueueThread {
+                promise.reject("error", "Too many long-running native jobs to stop the node")
+            }
+        }
     }
 
     @ReactMethod
@@ -896,18 +905,19 @@ class LdkNodeModule(reactContext: ReactApplicationContext) : ReactContextBaseJav
 
     @ReactMethod
     fun updateRgsSnapshot(promise: Promise) {
-        moduleScope.launch {
+        // Background priority, so the download and graph update don't compete with the UI
+        NativeJobExecutor.get().submit("ldkRgsUpdate", NativeJobExecutor.PRIORITY_BACKGROUND) {
             try {
                 val node = this@LdkNodeModule.node ?: throw Exception("Node not initialized")
                 val timestamp = node.updateRgsSnapshot()
                 val result = Arguments.createMap().apply {
                     putDouble("timestamp", timestamp.toLong().toDouble())
                 }
-                withContext(Dispatchers.Main) {
+                reactApplicationContext.runOnUiQueueThread {
                     promise.resolve(result)
                 }
             } catch (e: Exception) {
-                withContext(Dispatchers.Main) {
+                reactApplicationContext.runOnUiQueueThread {
                     promise.reject("error", errorMessage(e))
                 }
             }
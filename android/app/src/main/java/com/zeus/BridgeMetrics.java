@@ -0,0 +1,192 @@
+package app.zeusln.zeus;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Per-method measurements of lnd calls crossing the bridge between JS and lnd.
+ *
+ * latency    from LndMobile dispatching the call to its result arriving back
+ *            in LndMobile, whether through LndMobileService or directly
+ * queueWait  time the call's message sat in LndMobileService's Handler queue
+ * bytes      request and response payload sizes
+ * errors     calls that failed, and those that timed out in PendingRequests
+ *
+ * There is one instance per process. LndMobileService runs in the app's
+ * process, so the service's and the module's measurements end up together.
+ */
+final class BridgeMetrics {
+  private static final String TAG = "BridgeMetrics";
+  private static final BridgeMetrics INSTANCE = new BridgeMetrics();
+
+  static final String DUMP_FILE_NAME = "bridge-metrics.json";
+
+  private static final class MethodStats {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LatencyHistogram queueWait = new LatencyHistogram();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final AtomicLong requestBytes = new AtomicLong();
+    final AtomicLong maxRequestBytes = new AtomicLong();
+    final AtomicLong responseBytes = new AtomicLong();
+    final AtomicLong maxResponseBytes = new AtomicLong();
+  }
+
+  private final ConcurrentHashMap<String, MethodStats> methods = new ConcurrentHashMap<>();
+  // Bumped on every recording, so the dump can skip intervals with nothing new
+  private final AtomicLong version = new AtomicLong();
+  private ScheduledExecutorService dumpExecutor;
+  private ScheduledFuture<?> dump;
+
+  static BridgeMetrics get() {
+    return INSTANCE;
+  }
+
+  void recordRequest(String method, int bytes) {
+    MethodStats stats = stats(method);
+    stats.requestBytes.addAndGet(bytes);
+    raise(stats.maxRequestBytes, bytes);
+    version.incrementAndGet();
+  }
+
+  void recordResult(String method, long latencyNanos, int responseBytes, boolean error) {
+    MethodStats stats = stats(method);
+    stats.latency.recordNanos(latencyNanos);
+    if (error) {
+      stats.errors.incrementAndGet();
+    } else {
+      stats.responseBytes.addAndGet(responseBytes);
+      raise(stats.maxResponseBytes, responseBytes);
+    }
+    version.incrementAndGet();
+  }
+
+  void recordTimeout(String method) {
+    stats(method).timeouts.incrementAndGet();
+    version.incrementAndGet();
+  }
+
+  void recordQueueWait(String method, long waitNanos) {
+    stats(method).queueWait.recordNanos(waitNanos);
+    version.incrementAndGet();
+  }
+
+  /**
+   * One Bundle per method with its latency and queueWait histograms (see
+   * LatencyHistogram.toBundle), error and timeout counts, and total and
+   * largest request and response sizes.
+   */
+  Bundle snapshot() {
+    Bundle snapshot = new Bundle();
+    for (Map.Entry<String, MethodStats> entry : methods.entrySet()) {
+      MethodStats stats = entry.getValue();
+      Bundle bundle = new Bundle();
+      bundle.putBundle("latency", stats.latency.toBundle());
+      bundle.putBundle("queueWait", stats.queueWait.toBundle());
+      bundle.putDouble("errors", stats.errors.get());
+      bundle.putDouble("timeouts", stats.timeouts.get());
+      bundle.putDouble("requestBytes", stats.requestBytes.get());
+      bundle.putDouble("maxRequestBytes", stats.maxRequestBytes.get());
+      bundle.putDouble("responseBytes", stats.responseBytes.get());
+      bundle.putDouble("maxResponseBytes", stats.maxResponseBytes.get());
+      snapshot.putBundle(entry.getKey(), bundle);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Writes the snapshot as JSON to file every intervalMs, if anything was
+   * recorded since the last write. Replaces a dump started earlier.
+   */
+  synchronized void startDump(final File file, long intervalMs) {
+    stopDump();
+    if (dumpExecutor == null) {
+      dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "BridgeMetricsDump");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      });
+    }
+    dump = dumpExecutor.scheduleWithFixedDelay(new Runnable() {
+      private long dumped = -1;
+
+      @Override
+      public void run() {
+        long current = version.get();
+        if (current == dumped) {
+          return;
+        }
+        try {
+          write(file);
+          dumped = current;
+        } catch (IOException | JSONException e) {
+          Log.w(TAG, "Could not write " + file, e);
+        }
+      }
+    }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void stopDump() {
+    if (dump != null) {
+      dump.cancel(false);
+      dump = null;
+    }
+  }
+
+  private void write(File file) throws IOException, JSONException {
+    JSONObject json = toJson(snapshot());
+    json.put("timestamp", System.currentTimeMillis());
+    // Written aside and renamed, so readers never see half a file
+    File tmp = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tmp)) {
+      out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    if (!tmp.renameTo(file)) {
+      throw new IOException("Could not rename " + tmp + " to " + file);
+    }
+  }
+
+  private static JSONObject toJson(Bundle bundle) throws JSONException {
+    JSONObject json = new JSONObject();
+    for (String key : bundle.keySet()) {
+      Object value = bundle.get(key);
+      json.put(key, value instanceof Bundle ? toJson((Bundle) value) : value);
+    }
+    return json;
+  }
+
+  private MethodStats stats(String method) {
+    MethodStats stats = methods.get(method);
+    if (stats == null) {
+      stats = new MethodStats();
+      MethodStats existing = methods.putIfAbsent(method, stats);
+      if (existing != null) {
+        stats = existing;
+      }
+    }
+    return stats;
+  }
+
+  private static void raise(AtomicLong max, long value) {
+    long current;
+    while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // retry
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package app.zeusln.zeus;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.Trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.json.JSONObject;
+
+/**
+ * Trace points along the lnd call path, from LndMobile through
+ * LndMobileService and lnd back to JS.
+ *
+ * Every point is emitted as an android.os.Trace section, so calls show up in
+ * Perfetto and systrace captures. With recording enabled, they're also kept in
+ * an in-memory ring of the last RING_SIZE events that exportChromeTrace()
+ * writes out as Chrome trace JSON (chrome://tracing, ui.perfetto.dev), for
+ * performance reports from devices without adb.
+ *
+ * Timestamps are System.nanoTime(), the same clock as SystemClock.uptimeMillis()
+ * and thus Message.getWhen().
+ */
+final class BridgeTracer {
+  static final int RING_SIZE = 8192;
+
+  private static final class Event {
+    final String name;
+    final char phase;
+    final long ts;
+    final long dur;
+    final int tid;
+    final int id;
+
+    Event(String name, char phase, long ts, long dur, int tid, int id) {
+      this.name = name;
+      this.phase = phase;
+      this.ts = ts;
+      this.dur = dur;
+      this.tid = tid;
+      this.id = id;
+    }
+  }
+
+  private static volatile boolean recording = false;
+  private static final AtomicLong next = new AtomicLong();
+  private static final AtomicReferenceArray<Event> ring = new AtomicReferenceArray<>(RING_SIZE);
+  private static final Map<Integer, String> threadNames = new ConcurrentHashMap<>();
+
+  private BridgeTracer() {}
+
+  static void setRecording(boolean enabled) {
+    recording = enabled;
+  }
+
+  static boolean isRecording() {
+    return recording;
+  }
+
+  /**
+   * Opens a section on the current thread. Pass the result to end() on the same thread.
+   */
+  static long begin(String name) {
+    Trace.beginSection(truncate(name));
+    return recording ? System.nanoTime() : 0;
+  }
+
+  static void end(String name, long begin) {
+    Trace.endSection();
+    if (recording && begin != 0) {
+      record(new Event(name, 'X', begin, System.nanoTime() - begin, Process.myTid(), 0));
+    }
+  }
+
+  /**
+   * A span that started at startNanos (System.nanoTime() based) and ends now,
+   * for intervals spent waiting rather than running, like a Handler queue.
+   */
+  static void span(String name, long startNanos) {
+    if (recording) {
+      long now = System.nanoTime();
+      record(new Event(name, 'X', startNanos, Math.max(0, now - startNanos), Process.myTid(), 0));
+    }
+  }
+
+  /**
+   * Opens a section that may end on another thread, matched up by name and cookie.
+   */
+  static void beginAsync(String name, int cookie) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      Trace.beginAsyncSection(truncate(name), cookie);
+    }
+    if (recording) {
+      record(new Event(name, 'b', System.nanoTime(), 0, Process.myTid(), cookie));
+    }
+  }
+
+  static void endAsync(String name, int cookie) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      Trace.endAsyncSection(truncate(name), cookie);
+    }
+    if (recording) {
+      record(new Event(name, 'e', System.nanoTime(), 0, Process.myTid(), cookie));
+    }
+  }
+
+  /**
+   * Writes the recorded events of the last windowMs to file as Chrome trace JSON.
+   * Returns the number of events written.
+   */
+  static int exportChromeTrace(File file, long windowMs) throws IOException {
+    long since = System.nanoTime() - windowMs * 1000000L;
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < RING_SIZE; i++) {
+      Event event = ring.get(i);
+      if (event != null && event.ts >= since) {
+        events.add(event);
+      }
+    }
+    Collections.sort(events, new Comparator<Event>() {
+      @Override
+      public int compare(Event a, Event b) {
+        return Long.compare(a.ts, b.ts);
+      }
+    });
+
+    int pid = Process.myPid();
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+      boolean first = true;
+      for (Map.Entry<Integer, String> thread : threadNames.entrySet()) {
+        out.write(first ? "\n" : ",\n");
+        first = false;
+        out.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":" + pid + ",\"tid\":" + thread.getKey()
+          + ",\"args\":{\"name\":" + JSONObject.quote(thread.getValue()) + "}}");
+      }
+      for (Event event : events) {
+        out.write(first ? "\n" : ",\n");
+        first = false;
+        StringBuilder json = new StringBuilder(128)
+          .append("{\"ph\":\"").append(event.phase)
+          .append("\",\"name\":").append(JSONObject.quote(event.name))
+          .append(",\"cat\":\"lnd\",\"pid\":").append(pid)
+          .append(",\"tid\":").append(event.tid)
+          .append(",\"ts\":").append(event.ts / 1000.0);
+        if (event.phase == 'X') {
+          json.append(",\"dur\":").append(event.dur / 1000.0);
+        } else {
+          json.append(",\"id\":").append(event.id);
+        }
+        out.write(json.append('}').toString());
+      }
+      out.write("\n]}\n");
+    }
+    return events.size();
+  }
+
+  private static void record(Event event) {
+    threadNames.putIfAbsent(event.tid, Thread.currentThread().getName());
+    ring.set((int) (next.getAndIncrement() % RING_SIZE), event);
+  }
+
+  // Trace rejects section names longer than 127 characters
+  private static String truncate(String name) {
+    return name.length() > 127 ? name.substring(0, 127) : name;
+  }
+}
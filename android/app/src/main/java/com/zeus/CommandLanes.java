@@ -0,0 +1,232 @@
+package app.zeusln.zeus;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Execution lanes for LndMobileService, so that one slow lndmobile call
+ * doesn't hold up every other message queued on the service's HandlerThread.
+ *
+ * control  a single thread for lnd start/stop and wallet unlock/init, strictly in order
+ * pool     a bounded pool for independent unary calls
+ * keyed    serial lanes on top of the pool, for calls that must keep their order
+ *          relative to each other (opening and writing to the same stream)
+ *
+ * Work for the pool is queued per CommandPriority class. Every submission hands
+ * the pool a task that, once a thread is free, runs the most urgent queued call
+ * rather than the one it was submitted for, so payments overtake bulk reads.
+ * A call that has waited longer than STARVATION_MS runs next regardless of class.
+ *
+ * When the pool's queue is full the submitting thread runs the call itself,
+ * which pushes back on the service's message loop instead of queueing without bound.
+ */
+final class CommandLanes {
+  static final String CONTROL = "control";
+  static final String POOL = "pool";
+
+  private static final int POOL_THREADS = 4;
+  private static final int POOL_QUEUE_CAPACITY = 256;
+  static final long STARVATION_MS = 2000;
+
+  private static final class LaneStats {
+    final AtomicInteger depth = new AtomicInteger();
+    final AtomicLong executed = new AtomicLong();
+    final AtomicLong totalWaitNanos = new AtomicLong();
+    final AtomicLong maxWaitNanos = new AtomicLong();
+    final AtomicLong totalRunNanos = new AtomicLong();
+  }
+
+  private static final class Queued {
+    final Runnable runnable;
+    final long queuedAt;
+
+    Queued(Runnable runnable, long queuedAt) {
+      this.runnable = runnable;
+      this.queuedAt = queuedAt;
+    }
+  }
+
+  private final class PriorityClassExecutor implements Executor {
+    final int priority;
+
+    PriorityClassExecutor(int priority) {
+      this.priority = priority;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+      synchronized (queues) {
+        queues[priority].addLast(new Queued(runnable, SystemClock.elapsedRealtime()));
+      }
+      pool.execute(runNext);
+    }
+  }
+
+  private final ExecutorService control;
+  private final ThreadPoolExecutor pool;
+  private final ConcurrentHashMap<String, Executor> serialLanes = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, LaneStats> stats = new ConcurrentHashMap<>();
+  @SuppressWarnings("unchecked")
+  private final ArrayDeque<Queued>[] queues = new ArrayDeque[CommandPriority.NAMES.length];
+  private final PriorityClassExecutor[] classExecutors = new PriorityClassExecutor[CommandPriority.NAMES.length];
+  private final Runnable runNext = new Runnable() {
+    @Override
+    public void run() {
+      Queued next = takeNext();
+      if (next != null) {
+        next.runnable.run();
+      }
+    }
+  };
+
+  CommandLanes() {
+    control = Executors.newSingleThreadExecutor(namedThreads("LndMobileControl"));
+    pool = new ThreadPoolExecutor(
+      POOL_THREADS,
+      POOL_THREADS,
+      30,
+      TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(POOL_QUEUE_CAPACITY),
+      namedThreads("LndMobileCommand"),
+      new ThreadPoolExecutor.CallerRunsPolicy()
+    );
+    pool.allowCoreThreadTimeOut(true);
+    for (int i = 0; i < queues.length; i++) {
+      queues[i] = new ArrayDeque<>();
+      classExecutors[i] = new PriorityClassExecutor(i);
+    }
+  }
+
+  void executeControl(Runnable runnable) {
+    submit(CONTROL, control, runnable);
+  }
+
+  void execute(int priority, Runnable runnable) {
+    submit(POOL + ":" + CommandPriority.NAMES[priority], classExecutors[priority], runnable);
+  }
+
+  /**
+   * Runs after everything previously submitted with the same key has finished.
+   * The lane's priority is fixed by whoever submits to it first.
+   */
+  void executeSerial(String key, int priority, Runnable runnable) {
+    Executor lane = serialLanes.get(key);
+    if (lane == null) {
+      lane = MoreExecutors.newSequentialExecutor(classExecutors[priority]);
+      Executor existing = serialLanes.putIfAbsent(key, lane);
+      if (existing != null) {
+        lane = existing;
+      }
+    }
+    submit(key, lane, runnable);
+  }
+
+  /**
+   * One Bundle per lane with its current queue depth, number of executed
+   * calls, the average and maximum time calls waited before running and the
+   * average time spent in the call itself. Pool work is reported per priority class.
+   */
+  Bundle getMetrics() {
+    Bundle metrics = new Bundle();
+    for (Map.Entry<String, LaneStats> entry : stats.entrySet()) {
+      LaneStats lane = entry.getValue();
+      long executed = lane.executed.get();
+      Bundle bundle = new Bundle();
+      bundle.putInt("depth", lane.depth.get());
+      bundle.putDouble("executed", executed);
+      bundle.putDouble("avgWaitMs", executed > 0 ? lane.totalWaitNanos.get() / 1e6 / executed : 0);
+      bundle.putDouble("maxWaitMs", lane.maxWaitNanos.get() / 1e6);
+      bundle.putDouble("avgRunMs", executed > 0 ? lane.totalRunNanos.get() / 1e6 / executed : 0);
+      metrics.putBundle(entry.getKey(), bundle);
+    }
+    return metrics;
+  }
+
+  void shutdown() {
+    control.shutdown();
+    pool.shutdown();
+  }
+
+  private void submit(String name, Executor executor, final Runnable runnable) {
+    LaneStats lane = stats.get(name);
+    if (lane == null) {
+      lane = new LaneStats();
+      LaneStats existing = stats.putIfAbsent(name, lane);
+      if (existing != null) {
+        lane = existing;
+      }
+    }
+    final LaneStats laneStats = lane;
+    final long queuedAt = SystemClock.elapsedRealtimeNanos();
+    laneStats.depth.incrementAndGet();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        long waited = SystemClock.elapsedRealtimeNanos() - queuedAt;
+        laneStats.depth.decrementAndGet();
+        laneStats.executed.incrementAndGet();
+        laneStats.totalWaitNanos.addAndGet(waited);
+        long max;
+        while (waited > (max = laneStats.maxWaitNanos.get())
+            && !laneStats.maxWaitNanos.compareAndSet(max, waited)) {
+          // retry
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+          runnable.run();
+        } finally {
+          laneStats.totalRunNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - start);
+        }
+      }
+    });
+  }
+
+  private Queued takeNext() {
+    synchronized (queues) {
+      long now = SystemClock.elapsedRealtime();
+      // Anything starving goes first, oldest first
+      ArrayDeque<Queued> starving = null;
+      for (ArrayDeque<Queued> queue : queues) {
+        Queued head = queue.peekFirst();
+        if (head != null && now - head.queuedAt >= STARVATION_MS
+            && (starving == null || head.queuedAt < starving.peekFirst().queuedAt)) {
+          starving = queue;
+        }
+      }
+      if (starving != null) {
+        return starving.pollFirst();
+      }
+      for (ArrayDeque<Queued> queue : queues) {
+        if (!queue.isEmpty()) {
+          return queue.pollFirst();
+        }
+      }
+      return null;
+    }
+  }
+
+  private static ThreadFactory namedThreads(final String name) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, name + "-" + count.incrementAndGet());
+      }
+    };
+  }
+}
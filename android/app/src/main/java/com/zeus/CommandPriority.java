@@ -0,0 +1,125 @@
+package app.zeusln.zeus;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Priority classes for lnd calls queued in LndMobileService's pool lane, and
+ * how long LndMobile waits for each call's reply.
+ *
+ * Payments and invoices go first, then everything the user is waiting on,
+ * then bulk reads that screens issue on refresh. JS can override the class
+ * per call by passing its name in the "priority" field of MSG_GRPC_COMMAND.
+ *
+ * Reads listed in READ_METHODS get READ_DEADLINE_MS. Every other call may
+ * have side effects and gets SIDE_EFFECT_DEADLINE_MS, since lnd can still
+ * complete one after the deadline (a channel open waiting on its peer, a
+ * payment with HTLCs in flight). That deadline only catches replies that got
+ * lost, and ETIMEDOUT on such a call means its outcome is unknown, not that
+ * it failed.
+ */
+final class CommandPriority {
+  static final int PAYMENT = 0;
+  static final int INTERACTIVE = 1;
+  static final int BULK = 2;
+
+  static final String[] NAMES = { "payment", "interactive", "bulk" };
+
+  static final long READ_DEADLINE_MS = 5 * 60 * 1000;
+  static final long SIDE_EFFECT_DEADLINE_MS = 60 * 60 * 1000;
+
+  private static final Set<String> PAYMENT_METHODS = new HashSet<>(Arrays.asList(
+    "RouterSendPaymentV2",
+    "RouterTrackPaymentV2",
+    "RouterSendToRouteV2",
+    "SendPaymentSync",
+    "SendToRouteSync",
+    "DecodePayReq",
+    "QueryRoutes",
+    "AddInvoice"
+  ));
+
+  private static final Set<String> BULK_METHODS = new HashSet<>(Arrays.asList(
+    "ListChannels",
+    "ListPayments",
+    "ListInvoices",
+    "DescribeGraph",
+    "ClosedChannels",
+    "PendingChannels",
+    "GetTransactions",
+    "ForwardingHistory",
+    "ListPeers",
+    "GetNetworkInfo",
+    "WalletKitListUnspent",
+    "WalletKitListAddresses",
+    "WalletKitListAccounts"
+  ));
+
+  private static final Set<String> READ_METHODS = new HashSet<>(Arrays.asList(
+    "GetInfo",
+    "GetRecoveryInfo",
+    "ListChannels",
+    "PendingChannels",
+    "ClosedChannels",
+    "ChannelBalance",
+    "WalletBalance",
+    "FeeReport",
+    "GetNodeInfo",
+    "GetChanInfo",
+    "GetNetworkInfo",
+    "DescribeGraph",
+    "ListPeers",
+    "ListPayments",
+    "ListInvoices",
+    "LookupInvoice",
+    "GetTransactions",
+    "DecodePayReq",
+    "QueryRoutes",
+    "VerifyMessage",
+    "VerifyChanBackup",
+    "WalletKitListUnspent",
+    "WalletKitListAddresses",
+    "WalletKitListAccounts",
+    "WalletKitVerifyMessageWithAddr",
+    "WatchtowerClientGetTowerInfo",
+    "WatchtowerClientListTowers",
+    "WatchtowerClientPolicy",
+    "WatchtowerClientStats",
+    "AutopilotStatus",
+    "AutopilotQueryScores"
+  ));
+
+  private CommandPriority() {}
+
+  /**
+   * How long LndMobile waits for the reply to method unless JS picks a deadline.
+   */
+  static long deadlineMs(String method) {
+    return READ_METHODS.contains(method) ? READ_DEADLINE_MS : SIDE_EFFECT_DEADLINE_MS;
+  }
+
+  static int forMethod(String method) {
+    if (PAYMENT_METHODS.contains(method)) {
+      return PAYMENT;
+    }
+    if (BULK_METHODS.contains(method)) {
+      return BULK;
+    }
+    return INTERACTIVE;
+  }
+
+  /**
+   * The class named by override, or the method's own class if override is null or unknown.
+   */
+  static int resolve(String method, String override) {
+    if (override != null) {
+      for (int i = 0; i < NAMES.length; i++) {
+        if (NAMES[i].equals(override)) {
+          return i;
+        }
+      }
+    }
+    return forMethod(method);
+  }
+}
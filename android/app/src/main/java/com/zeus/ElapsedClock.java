@@ -0,0 +1,25 @@
+package app.zeusln.zeus;
+
+import android.os.SystemClock;
+
+/**
+ * SystemClock's elapsed time, behind an interface so that JVM unit tests can
+ * move it by hand.
+ */
+interface ElapsedClock {
+  ElapsedClock SYSTEM = new ElapsedClock() {
+    @Override
+    public long elapsedRealtime() {
+      return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public long elapsedRealtimeNanos() {
+      return SystemClock.elapsedRealtimeNanos();
+    }
+  };
+
+  long elapsedRealtime();
+
+  long elapsedRealtimeNanos();
+}
@@ -0,0 +1,95 @@
+package app.zeusln.zeus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single-flight for read-only lnd calls.
+ *
+ * While a call with a given method and request is in flight, identical calls
+ * don't reach lnd: they wait for the first one and get the same response bytes
+ * or error. Only methods without side effects are coalesced, two AddInvoice
+ * calls with the same request must still produce two invoices.
+ */
+final class InflightCoalescer {
+  private static final Set<String> METHODS = new HashSet<>(Arrays.asList(
+    "GetInfo",
+    "GetRecoveryInfo",
+    "ListChannels",
+    "PendingChannels",
+    "ClosedChannels",
+    "ChannelBalance",
+    "WalletBalance",
+    "FeeReport",
+    "GetNodeInfo",
+    "GetChanInfo",
+    "GetNetworkInfo",
+    "DescribeGraph",
+    "ListPeers",
+    "ListPayments",
+    "ListInvoices",
+    "LookupInvoice",
+    "GetTransactions",
+    "DecodePayReq",
+    "WalletKitListUnspent",
+    "WalletKitListAddresses",
+    "WalletKitListAccounts"
+  ));
+
+  private final Map<ResponseCache.Key, List<lndmobile.Callback>> inflight = new HashMap<>();
+  private long coalesced = 0;
+
+  static boolean isCoalescable(String method) {
+    return METHODS.contains(method);
+  }
+
+  /**
+   * Registers callback for the result of key. Returns true if no identical call
+   * is in flight, in which case the caller has to make the call, reporting to
+   * leaderCallback(key).
+   */
+  synchronized boolean join(ResponseCache.Key key, lndmobile.Callback callback) {
+    List<lndmobile.Callback> waiting = inflight.get(key);
+    if (waiting != null) {
+      waiting.add(callback);
+      coalesced++;
+      return false;
+    }
+    waiting = new ArrayList<>(2);
+    waiting.add(callback);
+    inflight.put(key, waiting);
+    return true;
+  }
+
+  lndmobile.Callback leaderCallback(final ResponseCache.Key key) {
+    return new lndmobile.Callback() {
+      @Override
+      public void onError(Exception e) {
+        for (lndmobile.Callback callback : complete(key)) {
+          callback.onError(e);
+        }
+      }
+
+      @Override
+      public void onResponse(byte[] bytes) {
+        for (lndmobile.Callback callback : complete(key)) {
+          callback.onResponse(bytes);
+        }
+      }
+    };
+  }
+
+  synchronized long getCoalescedCount() {
+    return coalesced;
+  }
+
+  private synchronized List<lndmobile.Callback> complete(ResponseCache.Key key) {
+    List<lndmobile.Callback> waiting = inflight.remove(key);
+    return waiting != null ? waiting : new ArrayList<lndmobile.Callback>();
+  }
+}
@@ -0,0 +1,107 @@
+package app.zeusln.zeus;
+
+import android.os.Bundle;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of durations in microseconds, in the style of HdrHistogram.
+ *
+ * Values below 16us get a bucket each, above that every power of two is split
+ * into 16 buckets, so percentiles are accurate to about 6% from 1us up to the
+ * largest tracked value of 2^40us (~12 days). Larger values are clamped.
+ *
+ * Recording is lock-free and safe from any thread. Snapshots read the buckets
+ * one by one, so a snapshot taken during recording may be off by the values
+ * recorded meanwhile.
+ */
+final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 39;
+  private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+  static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  void recordNanos(long nanos) {
+    record(nanos / 1000);
+  }
+
+  void record(long micros) {
+    long value = Math.min(Math.max(0, micros), MAX_VALUE);
+    counts.incrementAndGet(indexOf(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current;
+    while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // retry
+    }
+  }
+
+  long getCount() {
+    return count.get();
+  }
+
+  /**
+   * The highest value equivalent to the bucket holding the given percentile (0-100), in microseconds.
+   */
+  long percentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(highestEquivalent(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * count, meanMs, p50Ms, p90Ms, p99Ms, p999Ms and maxMs.
+   */
+  Bundle toBundle() {
+    Bundle bundle = new Bundle();
+    long n = count.get();
+    bundle.putDouble("count", n);
+    bundle.putDouble("meanMs", n > 0 ? sum.get() / 1e3 / n : 0);
+    bundle.putDouble("p50Ms", percentile(50) / 1e3);
+    bundle.putDouble("p90Ms", percentile(90) / 1e3);
+    bundle.putDouble("p99Ms", percentile(99) / 1e3);
+    bundle.putDouble("p999Ms", percentile(99.9) / 1e3);
+    bundle.putDouble("maxMs", max.get() / 1e3);
+    return bundle;
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  static long highestEquivalent(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int sub = index % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
@@ -0,0 +1,55 @@
+package app.zeusln.zeus;
+
+/**
+ * What LndMobileService and LndMobileDirect call to reach lnd. In the app
+ * that is always lndmobile through the generated LndMobileDispatcher; debug
+ * builds can swap in a stand-in (see FakeLndBackend) to exercise the IPC and
+ * dispatch layers without a running node.
+ */
+abstract class LndBackend {
+  static final LndBackend LNDMOBILE = new LndBackend() {
+    @Override
+    int kindOf(String method) {
+      return LndMobileDispatcher.kindOf(method);
+    }
+
+    @Override
+    boolean unary(String method, byte[] payload, lndmobile.Callback callback) throws Exception {
+      return LndMobileDispatcher.unary(method, payload, callback);
+    }
+
+    @Override
+    boolean serverStream(String method, byte[] payload, lndmobile.RecvStream stream) throws Exception {
+      return LndMobileDispatcher.serverStream(method, payload, stream);
+    }
+
+    @Override
+    lndmobile.SendStream bidiStream(String method, lndmobile.RecvStream stream) throws Exception {
+      return LndMobileDispatcher.bidiStream(method, stream);
+    }
+  };
+
+  private static volatile LndBackend current = LNDMOBILE;
+
+  static LndBackend get() {
+    return current;
+  }
+
+  /**
+   * Replaces the backend for every call dispatched from now on. Debug tooling only.
+   */
+  static void set(LndBackend backend) {
+    current = backend != null ? backend : LNDMOBILE;
+  }
+
+  /**
+   * One of LndMobileDispatcher's UNKNOWN, UNARY, SERVER_STREAM or BIDI_STREAM.
+   */
+  abstract int kindOf(String method);
+
+  abstract boolean unary(String method, byte[] payload, lndmobile.Callback callback) throws Exception;
+
+  abstract boolean serverStream(String method, byte[] payload, lndmobile.RecvStream stream) throws Exception;
+
+  abstract lndmobile.SendStream bidiStream(String method, lndmobile.RecvStream stream) throws Exception;
+}
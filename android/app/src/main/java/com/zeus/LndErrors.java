@@ -0,0 +1,26 @@
+package app.zeusln.zeus;
+
+/**
+ * Splits lndmobile error messages of the form "rpc error: code = X desc = Y"
+ * into the error_code and error_desc sent to JS. Messages in any other form
+ * get code "Error" and are passed on whole as the description.
+ *
+ * Plain Java on purpose, so the benchmarks module can compile it for the JVM.
+ */
+final class LndErrors {
+  private LndErrors() {}
+
+  static String code(String message) {
+    if (message != null && message.contains("code = ") && message.contains("desc = ")) {
+      return message.substring(message.indexOf("code = ") + 7, message.indexOf(" desc = "));
+    }
+    return "Error";
+  }
+
+  static String desc(String message) {
+    if (message != null && message.contains("code = ") && message.contains("desc = ")) {
+      return message.substring(message.indexOf("desc = ") + 7);
+    }
+    return message;
+  }
+}
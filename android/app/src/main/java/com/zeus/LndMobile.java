@@ -23,6 +23,9 @@ import android.os.Handler;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SharedMemory;
+import android.os.SystemClock;
+import android.system.ErrnoException;
 
 import android.nfc.Tag;
 import android.nfc.NfcAdapter;
@@ -48,11 +51,17 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.EnumSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.ReadableMapKeySetIterator;
@@ -60,6 +69,7 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.PromiseImpl;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
@@ -69,14 +79,24 @@ import com.reactnativecommunity.asyncstorage.AsyncLocalStorageUtil;
 // import org.torproject.jni.TorService;
 
 // TODO break this class up
-class LndMobile extends ReactContextBaseJavaModule {
+class LndMobile extends ReactContextBaseJavaModule implements LifecycleEventListener {
   private final String TAG = "LndMobile";
   public static Map<String, String> translationCache = new HashMap<>();
   private HandlerThread handlerThread;
   Messenger messenger;
   private boolean lndMobileServiceBound = false;
   private Messenger lndMobileServiceMessenger; // The service
-  private java.util.concurrent.ConcurrentHashMap<Integer, Promise> requests = new java.util.concurrent.ConcurrentHashMap<>();
+  private final PendingRequests requests = new PendingRequests();
+  // Requests sent through sendCommandProjected, decoded off the handler thread
+  private final Map<Integer, ProjectedRequest> projectedRequests = new ConcurrentHashMap<>();
+  private final ExecutorService projectionExecutor = Executors.newSingleThreadExecutor();
+  // Set when LndMobileService shares our process, see LndMobileDirect
+  private volatile LndMobileDirect direct;
+  private volatile boolean directCallsEnabled = BuildConfig.LND_DIRECT_CALLS;
+
+  // For the service's own queries. lnd calls get theirs from CommandPriority.deadlineMs
+  static final long DEFAULT_COMMAND_TIMEOUT_MS = 5 * 60 * 1000;
+  private static final long BRIDGE_METRICS_DUMP_INTERVAL_MS = 60 * 1000;
 
   public enum LndStatus {
       SERVICE_BOUND, PROCESS_STARTED, WALLET_UNLOCKED;
@@ -108,23 +128,53 @@ class LndMobile extends ReactContextBaseJavaModule {
       Bundle bundle = msg.getData();
 
       switch (msg.what) {
+        case LndMobileService.MSG_REGISTER_CLIENT_ACK:
+          if (bundle.containsKey("stream_ring")) {
+            attachStreamRing((SharedMemory) bundle.getParcelable("stream_ring"));
+          }
+          // fall through
         case LndMobileService.MSG_GRPC_COMMAND_RESULT:
         case LndMobileService.MSG_START_LND_RESULT:
-        case LndMobileService.MSG_REGISTER_CLIENT_ACK:
         case LndMobileService.MSG_STOP_LND_RESULT:
         case LndMobileService.MSG_PONG: {
           final int request = msg.arg1;
+          markStartupMilestone(msg.what, bundle);
+          final ProjectedRequest projection = projectedRequests.remove(request);
+          final long elapsedNanos = requests.elapsedNanos(request);
+          final Promise promise = requests.take(request);
+          if (msg.what == LndMobileService.MSG_GRPC_COMMAND_RESULT) {
+            BridgeTracer.endAsync("lnd " + bundle.getString("method"), request);
+          }
 
-          if (!requests.containsKey(request)) {
+          if (promise == null) {
             return;
           }
 
-          final Promise promise = requests.remove(request);
+          // A shared memory payload is closed once read, so it is read exactly once here
+          final byte[] bytes = LndMobilePayloads.getPayload(bundle, "response");
+          if (msg.what == LndMobileService.MSG_GRPC_COMMAND_RESULT) {
+            BridgeMetrics.get().recordResult(
+              bundle.getString("method"),
+              elapsedNanos,
+              bytes != null ? bytes.length : 0,
+              bundle.containsKey("error_code")
+            );
+          }
 
           if (bundle.containsKey("error_code")) {
             promise.reject(bundle.getString("error_code"), bundle.getString("error_desc"));
+          } else if (projection != null) {
+            projectionExecutor.execute(new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  promise.resolve(LndProjections.project(projection.method, bytes, projection.fields));
+                } catch (Throwable t) {
+                  promise.reject(TAG, "Could not decode " + projection.method + " response", t);
+                }
+              }
+            });
           } else {
-            final byte[] bytes = (byte[]) bundle.get("response");
             String b64 = "";
             if (bytes != null && bytes.length > 0) {
               b64 = Base64.encodeToString(bytes, Base64.NO_WRAP);
@@ -136,11 +186,27 @@ class LndMobile extends ReactContextBaseJavaModule {
 
           break;
         }
+        case LndMobileService.MSG_GOSSIP_SYNC_PROGRESS: {
+          streamEventBatcher.emit("GossipSyncProgress", Arguments.fromBundle(bundle));
+          break;
+        }
+        case LndMobileService.MSG_CANCEL_GOSSIP_SYNC_RESULT:
+        case LndMobileService.MSG_RESPONSE_CACHE_STATS:
+        case LndMobileService.MSG_LANE_METRICS: {
+          final Promise promise = requests.take(msg.arg1);
+          if (promise != null) {
+            promise.resolve(Arguments.fromBundle(bundle));
+          }
+          break;
+        }
         case LndMobileService.MSG_GOSSIP_SYNC_RESULT: {
           final int request = msg.arg1;
-          final Promise promise = requests.remove(request);
-          if (bundle.containsKey("response")) {
-            final byte[] bytes = (byte[]) bundle.get("response");
+          final Promise promise = requests.take(request);
+          if (promise == null) {
+            return;
+          }
+          if (LndMobilePayloads.hasPayload(bundle, "response")) {
+            final byte[] bytes = LndMobilePayloads.getPayload(bundle, "response");
             promise.resolve("response=" + new String(bytes, StandardCharsets.UTF_8));
           } else if (bundle.containsKey("error_code")) {
             promise.reject(bundle.getString("error_code"), bundle.getString("error_desc"));
@@ -152,48 +218,139 @@ class LndMobile extends ReactContextBaseJavaModule {
         case LndMobileService.MSG_GRPC_STREAM_RESULT: {
           // TODO EOF Stream error
           final String method = (String) bundle.get("method");
-          WritableMap params = Arguments.createMap();
+          // Spilled out of a full stream ring, everything still in the ring came first
+          final int spill = msg.arg1;
+          if (spill != 0) {
+            drainStreamRing();
+          }
 
           if (bundle.containsKey("error_code")) {
-            params.putString("error_code", bundle.getString("error_code"));
-            params.putString("error_desc", bundle.getString("error_desc"));
+            emitStreamResult(method, null, bundle.getString("error_code"), bundle.getString("error_desc"));
           } else {
-            final byte[] bytes = (byte[]) bundle.get("response");
-            String b64 = "";
-            if (bytes != null && bytes.length > 0) {
-              b64 = Base64.encodeToString(bytes, Base64.NO_WRAP);
-            }
-            params.putString("data", b64);
+            emitStreamResult(method, LndMobilePayloads.getPayload(bundle, "response"), null, null);
           }
-
-          getReactApplicationContext()
-            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-            .emit(method, params);
+          if (spill != 0 && streamRing != null) {
+            streamRing.acknowledgeSpill(spill);
+          }
+          break;
+        }
+        case LndMobileService.MSG_GRPC_STREAM_RING_DOORBELL: {
+          drainStreamRing();
+          break;
+        }
+        case LndMobileService.MSG_GRPC_STREAM_RING_PAYLOAD: {
+          streamRingSidePayloads.put(msg.arg1, LndMobilePayloads.getPayload(bundle, "response"));
+          drainStreamRing();
           break;
         }
         case LndMobileService.MSG_CHECKSTATUS_RESPONSE: {
           final int request = msg.arg1;
+          final Promise promise = requests.take(request);
 
-          if (!requests.containsKey(request)) {
+          if (promise == null) {
             return;
           }
 
-          final Promise promise = requests.remove(request);
           int flags = msg.arg2;
           promise.resolve(flags);
           break;
         }
-        case LndMobileService.MSG_GRPC_STREAM_STARTED:
-        case LndMobileService.MSG_GRPC_STREAM_WRITE: {
+        case LndMobileService.MSG_GRPC_STREAM_STARTED: {
           final int request = msg.arg1;
-          final Promise promise = requests.remove(request);
+          final Promise promise = requests.take(request);
           if (promise != null) {
             promise.resolve("done");
           }
           break;
         }
+        case LndMobileService.MSG_GRPC_STREAM_WRITE_RESULT: {
+          // Writes are acknowledged in batches
+          int[] acknowledged = bundle.getIntArray("requests");
+          if (acknowledged == null) {
+            acknowledged = new int[] { msg.arg1 };
+          }
+          for (int request : acknowledged) {
+            final Promise promise = requests.take(request);
+            if (promise == null) {
+              continue;
+            }
+            if (bundle.containsKey("error_code")) {
+              promise.reject(bundle.getString("error_code"), bundle.getString("error_desc"));
+            } else {
+              promise.resolve("done");
+            }
+          }
+          break;
+        }
+      }
+    }
+  }
+
+  private void emitStreamResult(String method, byte[] bytes, String errorCode, String errorDesc) {
+    WritableMap params = Arguments.createMap();
+
+    if (errorCode != null) {
+      params.putString("error_code", errorCode);
+      params.putString("error_desc", errorDesc);
+    } else {
+      String b64 = "";
+      if (bytes != null && bytes.length > 0) {
+        b64 = Base64.encodeToString(bytes, Base64.NO_WRAP);
+      }
+      params.putString("data", b64);
+    }
+
+    streamDeliveryQueue.offer(method, params);
+  }
+
+  // Only touched from the IncomingHandler thread
+  private StreamRingBuffer streamRing;
+  private final Map<Integer, byte[]> streamRingSidePayloads = new HashMap<>();
+
+  private final StreamRingBuffer.Sink streamRingSink = new StreamRingBuffer.Sink() {
+    @Override
+    public boolean onRecord(byte type, int sequence, String method, byte[] a, byte[] b) {
+      switch (type) {
+        case StreamRingBuffer.TYPE_RESPONSE:
+          emitStreamResult(method, a, null, null);
+          return true;
+        case StreamRingBuffer.TYPE_ERROR:
+          emitStreamResult(method, null, new String(a, StandardCharsets.UTF_8), new String(b, StandardCharsets.UTF_8));
+          return true;
+        case StreamRingBuffer.TYPE_SIDE_PAYLOAD:
+          if (!streamRingSidePayloads.containsKey(sequence)) {
+            return false;
+          }
+          emitStreamResult(method, streamRingSidePayloads.remove(sequence), null, null);
+          return true;
+        default:
+          Log.w(TAG, "Unknown stream ring record type " + type);
+          return true;
       }
     }
+  };
+
+  private void attachStreamRing(SharedMemory sharedMemory) {
+    closeStreamRing();
+    try {
+      streamRing = StreamRingBuffer.attach(sharedMemory);
+    } catch (ErrnoException e) {
+      Log.e(TAG, "Could not map stream ring", e);
+    }
+  }
+
+  private void drainStreamRing() {
+    if (streamRing != null) {
+      streamRing.drain(streamRingSink);
+    }
+  }
+
+  private void closeStreamRing() {
+    if (streamRing != null) {
+      streamRing.close();
+      streamRing = null;
+    }
+    streamRingSidePayloads.clear();
   }
 
   class LndMobileServiceConnection implements ServiceConnection {
@@ -205,12 +362,16 @@ class LndMobile extends ReactContextBaseJavaModule {
 
     @Override
     public void onServiceConnected(ComponentName name, IBinder service) {
+      LndStartupProfiler.get(getReactApplicationContext()).mark(LndStartupProfiler.SERVICE_CONNECTED);
       lndMobileServiceBound = true;
       lndMobileServiceMessenger = new Messenger(service);
 
       try {
         Message msg = Message.obtain(null, LndMobileService.MSG_REGISTER_CLIENT, request, 0);
         msg.replyTo = messenger;
+        Bundle bundle = new Bundle();
+        bundle.putBoolean("stream_ring", StreamRingBuffer.isSupported());
+        msg.setData(bundle);
         lndMobileServiceMessenger.send(msg);
       } catch (RemoteException e) {
         // In this case the service has crashed before we could even
@@ -228,11 +389,29 @@ class LndMobile extends ReactContextBaseJavaModule {
       // unexpectedly disconnected -- that is, its process crashed.
       lndMobileServiceMessenger = null;
       lndMobileServiceBound = false;
+      requests.rejectAll(TAG, "LndMobileService disconnected");
+      projectedRequests.clear();
     }
   }
 
   private LndMobileServiceConnection lndMobileServiceConnection;
 
+  private void markStartupMilestone(int what, Bundle bundle) {
+    String milestone;
+    if (what == LndMobileService.MSG_REGISTER_CLIENT_ACK) {
+      milestone = LndStartupProfiler.REGISTER_CLIENT_ACK;
+    } else if (what == LndMobileService.MSG_START_LND_RESULT) {
+      milestone = bundle.containsKey("error_code") ? LndStartupProfiler.START_LND_ERROR : LndStartupProfiler.START_LND_RESULT;
+    } else if (what == LndMobileService.MSG_GRPC_COMMAND_RESULT
+        && "GetInfo".equals(bundle.getString("method"))
+        && !bundle.containsKey("error_code")) {
+      milestone = LndStartupProfiler.FIRST_GET_INFO;
+    } else {
+      return;
+    }
+    LndStartupProfiler.get(getReactApplicationContext()).mark(milestone);
+  }
+
   private boolean getPersistentServicesEnabled(Context context) {
     ReactDatabaseSupplier dbSupplier = ReactDatabaseSupplier.getInstance(context);
     SQLiteDatabase db = dbSupplier.get();
@@ -244,8 +423,33 @@ class LndMobile extends ReactContextBaseJavaModule {
     return false;
   }
 
+  private final StreamEventBatcher streamEventBatcher;
+  private final StreamDeliveryQueue streamDeliveryQueue;
+
   public LndMobile(ReactApplicationContext reactContext) {
     super(reactContext);
+    streamEventBatcher = new StreamEventBatcher(reactContext);
+    streamDeliveryQueue = new StreamDeliveryQueue(new StreamDeliveryQueue.Sink() {
+      @Override
+      public void deliver(String method, WritableMap params) {
+        streamEventBatcher.emit(method, params);
+      }
+    });
+    reactContext.addLifecycleEventListener(this);
+  }
+
+  @Override
+  public void onHostResume() {
+    streamDeliveryQueue.setPaused(false);
+  }
+
+  @Override
+  public void onHostPause() {
+    streamDeliveryQueue.setPaused(true);
+  }
+
+  @Override
+  public void onHostDestroy() {
   }
 
   @Override
@@ -280,8 +484,7 @@ class LndMobile extends ReactContextBaseJavaModule {
 
   @ReactMethod
   public void sendPongToLndMobileservice(Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register("Ping", promise, 0);
 
     Message message = Message.obtain(null, LndMobileService.MSG_PING, req, 0);
     message.replyTo = messenger;
@@ -296,18 +499,30 @@ class LndMobile extends ReactContextBaseJavaModule {
   @ReactMethod
   public void initialize(Promise promise) {
     if (!lndMobileServiceBound) {
-      int req = new Random().nextInt();
-      requests.put(req, promise);
+      int req = requests.register("RegisterClient", promise, 0);
 
       lndMobileServiceConnection = new LndMobileServiceConnection(req);
       handlerThread = new HandlerThread("LndMobile");
       handlerThread.start();
-      messenger = new Messenger(new IncomingHandler(handlerThread.getLooper())); // me
+      IncomingHandler incomingHandler = new IncomingHandler(handlerThread.getLooper());
+      streamEventBatcher.setHandler(incomingHandler);
+      streamDeliveryQueue.setHandler(incomingHandler);
+      messenger = new Messenger(incomingHandler); // me
+      BridgeMetrics.get().startDump(
+        new File(getReactApplicationContext().getFilesDir(), BridgeMetrics.DUMP_FILE_NAME),
+        BRIDGE_METRICS_DUMP_INTERVAL_MS
+      );
+      boolean serviceInProcess = LndMobileDirect.isServiceInProcess(getReactApplicationContext());
+      LndMobilePayloads.setServiceInProcess(serviceInProcess);
+      if (serviceInProcess) {
+        direct = new LndMobileDirect(incomingHandler);
+      }
       Intent intent = new Intent(getReactApplicationContext(), LndMobileService.class);
       if (getPersistentServicesEnabled(getReactApplicationContext())) {
         getReactApplicationContext().startForegroundService(intent);
       }
       // else rely on bindService to start LND
+      LndStartupProfiler.get(getReactApplicationContext()).mark(LndStartupProfiler.BIND_REQUESTED);
       getReactApplicationContext().bindService(
         intent,
         lndMobileServiceConnection,
@@ -322,11 +537,33 @@ class LndMobile extends ReactContextBaseJavaModule {
     }
   }
 
+  /**
+   * Opts the embedded wallet in lndDir in to starting lnd from
+   * MainApplication.onCreate, with the arguments of its last successful
+   * startLnd, before JS has loaded. startLnd then attaches to that start.
+   * Only one wallet can be enabled at a time, enabling one disables the
+   * other. Takes effect on the next app launch.
+   */
+  @ReactMethod
+  public void setLndWarmStartEnabled(boolean enabled, String lndDir, Promise promise) {
+    String path = lndDirPath(lndDir);
+    if (enabled) {
+      LndWarmStart.setLndDir(getReactApplicationContext(), path);
+    } else if (path.equals(LndWarmStart.getLndDir(getReactApplicationContext()))) {
+      LndWarmStart.setLndDir(getReactApplicationContext(), null);
+    }
+    promise.resolve(null);
+  }
+
+  @ReactMethod
+  public void isLndWarmStartEnabled(String lndDir, Promise promise) {
+    promise.resolve(lndDirPath(lndDir).equals(LndWarmStart.getLndDir(getReactApplicationContext())));
+  }
+
   @ReactMethod
   public void unbindLndMobileService(Promise promise) {
     if (lndMobileServiceBound) {
-      int req = new Random().nextInt();
-      requests.put(req, promise);
+      int req = requests.allocate();
 
       if (lndMobileServiceMessenger != null) {
         try {
@@ -340,19 +577,32 @@ class LndMobile extends ReactContextBaseJavaModule {
 
       getReactApplicationContext().unbindService(lndMobileServiceConnection);
       lndMobileServiceBound = false;
+      streamEventBatcher.setHandler(null);
+      streamDeliveryQueue.setHandler(null);
+      direct = null;
+      BridgeMetrics.get().stopDump();
       if (handlerThread != null) {
+        // The ring is only touched on the handler thread, close it after what's queued there
+        new Handler(handlerThread.getLooper()).post(new Runnable() {
+          @Override
+          public void run() {
+            closeStreamRing();
+          }
+        });
         handlerThread.quitSafely();
         handlerThread = null;
       }
+      requests.rejectAll(TAG, "LndMobileService unbound");
+      projectedRequests.clear();
     }
+    promise.resolve(null);
   }
 
   // TODO unbind LndMobileService?
 
   @ReactMethod
   public void checkStatus(Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register("CheckStatus", promise, 0);
 
     Message message = Message.obtain(null, LndMobileService.MSG_CHECKSTATUS, req, 0);
     message.replyTo = messenger;
@@ -368,23 +618,25 @@ class LndMobile extends ReactContextBaseJavaModule {
     }
   }
 
+  private String lndDirPath(String lndDir) {
+    if (lndDir.equals("lnd")) {
+      return getReactApplicationContext().getFilesDir().getPath();
+    }
+    return getReactApplicationContext().getFilesDir().getPath() + "/" + lndDir;
+  }
+
   @ReactMethod
   public void startLnd(String args, String lndDir, Boolean isTorEnabled, Boolean isTestnet, Promise promise) {
     // TODO args is only used on iOS right now
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register("StartLnd", promise, 0);
+    LndStartupProfiler.get(getReactApplicationContext()).mark(LndStartupProfiler.START_LND_REQUESTED);
 
     Message message = Message.obtain(null, LndMobileService.MSG_START_LND, req, 0);
     message.replyTo = messenger;
 
     Bundle bundle = new Bundle();
 
-    String params;
-    if (lndDir.equals("lnd")) {
-      params = "--lnddir=" + getReactApplicationContext().getFilesDir().getPath();
-    } else {
-      params = "--lnddir=" + getReactApplicationContext().getFilesDir().getPath() + "/" + lndDir;
-    }
+    String params = "--lnddir=" + lndDirPath(lndDir);
 
     if (isTorEnabled) {
       // int listenPort = ZeusTorUtils.getListenPort(isTestnet);
@@ -416,8 +668,7 @@ class LndMobile extends ReactContextBaseJavaModule {
 
   @ReactMethod
   public void stopLnd(Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register("StopLnd", promise, 0);
 
     Message message = Message.obtain(null, LndMobileService.MSG_STOP_LND, req, 0);
     message.replyTo = messenger;
@@ -431,8 +682,7 @@ class LndMobile extends ReactContextBaseJavaModule {
 
   @ReactMethod
   public void gossipSync(String serviceUrl, String lndDir, boolean isSqlite, Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register("GossipSync", promise, 0);
 
     Message message = Message.obtain(null, LndMobileService.MSG_GOSSIP_SYNC, req, 0);
     message.replyTo = messenger;
@@ -460,54 +710,348 @@ class LndMobile extends ReactContextBaseJavaModule {
 
   @ReactMethod
   public void cancelGossipSync(Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register("CancelGossipSync", promise, 0);
 
     Message message = Message.obtain(null, LndMobileService.MSG_CANCEL_GOSSIP_SYNC, req, 0);
     message.replyTo = messenger;
 
+    if (lndMobileServiceMessenger != null) {
+      try {
+        lndMobileServiceMessenger.send(message);
+      } catch (RemoteException e) {
+        requests.take(req);
+        promise.reject(TAG, "Could not Send MSG_CANCEL_GOSSIP_SYNC to LndMobileService", e);
+      }
+    } else {
+      requests.take(req);
+      promise.reject(TAG, "lndMobileServiceMessenger uninitialized");
+    }
+  }
+
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public int reserveRequestId() {
+    return requests.allocate();
+  }
+
+  @ReactMethod
+  public void cancelRequest(int requestId, Promise promise) {
+    promise.resolve(requests.cancel(requestId));
+  }
+
+  /**
+   * Queue depth and wait times of LndMobileService's execution lanes, see CommandLanes.
+   */
+  @ReactMethod
+  public void getServiceLaneMetrics(Promise promise) {
+    int req = requests.register("GetLaneMetrics", promise, DEFAULT_COMMAND_TIMEOUT_MS);
+
+    Message message = Message.obtain(null, LndMobileService.MSG_GET_LANE_METRICS, req, 0);
+    message.replyTo = messenger;
+
+    if (lndMobileServiceMessenger != null) {
+      try {
+        lndMobileServiceMessenger.send(message);
+      } catch (RemoteException e) {
+        requests.take(req);
+        promise.reject(TAG, "Could not Send MSG_GET_LANE_METRICS to LndMobileService", e);
+      }
+    } else {
+      requests.take(req);
+      promise.reject(TAG, "lndMobileServiceMessenger uninitialized");
+    }
+  }
+
+  /**
+   * Hit/miss counters of LndMobileService's response cache (see ResponseCache),
+   * and the number of calls answered by an identical one in flight (see InflightCoalescer).
+   */
+  @ReactMethod
+  public void getResponseCacheStats(Promise promise) {
+    int req = requests.register("GetResponseCacheStats", promise, DEFAULT_COMMAND_TIMEOUT_MS);
+
+    Message message = Message.obtain(null, LndMobileService.MSG_GET_RESPONSE_CACHE_STATS, req, 0);
+    message.replyTo = messenger;
+
+    if (lndMobileServiceMessenger != null) {
+      try {
+        lndMobileServiceMessenger.send(message);
+      } catch (RemoteException e) {
+        requests.take(req);
+        promise.reject(TAG, "Could not Send MSG_GET_RESPONSE_CACHE_STATS to LndMobileService", e);
+      }
+    } else {
+      requests.take(req);
+      promise.reject(TAG, "lndMobileServiceMessenger uninitialized");
+    }
+  }
+
+  /**
+   * Per-method latency and Handler queue wait histograms, payload sizes and
+   * error counts of lnd calls (see BridgeMetrics). The same snapshot is written
+   * to files/bridge-metrics.json every minute while there are new measurements.
+   */
+  @ReactMethod
+  public void getBridgeMetrics(Promise promise) {
+    promise.resolve(Arguments.fromBundle(BridgeMetrics.get().snapshot()));
+  }
+
+  /**
+   * Starts or stops keeping trace points of lnd calls for exportBridgeTrace().
+   * They are emitted as android.os.Trace sections regardless.
+   */
+  @ReactMethod
+  public void setBridgeTracingEnabled(boolean enabled, Promise promise) {
+    BridgeTracer.setRecording(enabled);
+    promise.resolve(null);
+  }
+
+  /**
+   * Writes the trace points of the last windowSeconds to a Chrome trace JSON file
+   * in the cache directory and resolves with its path.
+   */
+  @ReactMethod
+  public void exportBridgeTrace(double windowSeconds, Promise promise) {
+    File file = new File(getReactApplicationContext().getCacheDir(), "bridge-trace-" + System.currentTimeMillis() + ".json");
     try {
-      lndMobileServiceMessenger.send(message);
-    } catch (RemoteException e) {
-      promise.reject(TAG, "Could not Send MSG_CANCEL_GOSSIP_SYNC to LndMobileService", e);
+      BridgeTracer.exportChromeTrace(file, (long) (windowSeconds * 1000));
+      promise.resolve(file.getAbsolutePath());
+    } catch (IOException e) {
+      promise.reject(TAG, "Could not write " + file, e);
     }
   }
 
+  @ReactMethod
+  public void getPendingRequestStats(Promise promise) {
+    WritableMap stats = Arguments.createMap();
+    stats.putInt("pending", requests.getPendingCount());
+    stats.putDouble("timedOut", requests.getTimedOutCount());
+    stats.putDouble("cancelled", requests.getCancelledCount());
+    promise.resolve(stats);
+  }
+
   @ReactMethod
   public void sendCommand(String method, String payloadStr, final Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register(method, promise, CommandPriority.deadlineMs(method));
+    dispatchCommand(req, method, payloadStr, null, promise);
+  }
+
+  /**
+   * Like sendCommand, but with a caller-chosen deadline and a request ID
+   * obtained from reserveRequestId() so that JS can cancelRequest() it.
+   * A negative timeoutMs keeps sendCommand's deadline for the method, 0 means none.
+   * A non-null priority overrides the method's CommandPriority class. It is
+   * ignored while direct calls are in effect, see setDirectCallsEnabled.
+   */
+  @ReactMethod
+  public void sendCommandWithDeadline(String method, String payloadStr, int requestId, double timeoutMs, @Nullable String priority, final Promise promise) {
+    long deadlineMs = timeoutMs < 0 ? CommandPriority.deadlineMs(method) : (long) timeoutMs;
+    if (!requests.register(requestId, method, promise, deadlineMs)) {
+      promise.reject(TAG, "Request id " + requestId + " is already in use");
+      return;
+    }
+    dispatchCommand(requestId, method, payloadStr, priority, promise);
+  }
+
+  /**
+   * Like sendCommand, but the response is decoded natively and only the given
+   * fields are returned, as { fields, rows, meta } (see LndProjections).
+   * Only available for the methods LndProjections knows about.
+   */
+  @ReactMethod
+  public void sendCommandProjected(String method, String payloadStr, ReadableArray fieldPaths, final Promise promise) {
+    if (!LndProjections.supports(method)) {
+      promise.reject(TAG, "Projection is not supported for " + method);
+      return;
+    }
+    List<String> fields = new ArrayList<>();
+    for (int i = 0; i < fieldPaths.size(); i++) {
+      fields.add(fieldPaths.getString(i));
+    }
+    String unknown = LndProjections.findUnknownField(method, fields);
+    if (unknown != null) {
+      promise.reject(TAG, "Unknown field " + unknown + " for " + method);
+      return;
+    }
+
+    int req = requests.register(method, promise, CommandPriority.deadlineMs(method));
+    projectedRequests.put(req, new ProjectedRequest(method, fields));
+    dispatchCommand(req, method, payloadStr, null, promise);
+  }
+
+  private static final class ProjectedRequest {
+    final String method;
+    final List<String> fields;
+
+    ProjectedRequest(String method, List<String> fields) {
+      this.method = method;
+      this.fields = fields;
+    }
+  }
+
+  /**
+   * Toggles calling lnd directly for unary commands instead of through
+   * LndMobileService. Resolves with whether direct calls are now in effect,
+   * which is never the case if the service runs in a separate process.
+   * Direct calls skip the service's cache, coalescing and lanes, and ignore
+   * priority, see LndMobileDirect.
+   */
+  @ReactMethod
+  public void setDirectCallsEnabled(boolean enabled, Promise promise) {
+    directCallsEnabled = enabled;
+    promise.resolve(enabled && LndMobileDirect.isServiceInProcess(getReactApplicationContext()));
+  }
+
+  /**
+   * Runs the same unary call through LndMobileService and directly, one call
+   * at a time, and reports the average and best round trip of both paths.
+   */
+  @ReactMethod
+  public void DEBUG_compareCommandLatency(String method, String payloadStr, int iterations, Promise promise) {
+    final LndMobileDirect direct = this.direct;
+    if (direct == null || lndMobileServiceMessenger == null) {
+      promise.reject(TAG, "LndMobileService not connected in-process");
+      return;
+    }
+    final int runs = Math.max(1, iterations);
+    final byte[] payload = Base64.decode(payloadStr, Base64.NO_WRAP);
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          long[] service = new long[runs];
+          long[] directNanos = new long[runs];
+          // First call of each path is warmup and not counted
+          for (int i = -1; i < runs; i++) {
+            long serviceTime = timeCommand(method, null, payload);
+            long directTime = timeCommand(method, direct, payload);
+            if (i >= 0) {
+              service[i] = serviceTime;
+              directNanos[i] = directTime;
+            }
+          }
+          WritableMap result = Arguments.createMap();
+          result.putString("method", method);
+          result.putInt("iterations", runs);
+          result.putDouble("serviceAvgMs", average(service) / 1e6);
+          result.putDouble("serviceMinMs", min(service) / 1e6);
+          result.putDouble("directAvgMs", average(directNanos) / 1e6);
+          result.putDouble("directMinMs", min(directNanos) / 1e6);
+          promise.resolve(result);
+        } catch (Throwable t) {
+          promise.reject(TAG, t.getMessage());
+        }
+      }
+    }, "LndMobileLatencyComparison").start();
+  }
+
+  private long timeCommand(String method, LndMobileDirect direct, byte[] payload) throws Exception {
+    final CountDownLatch done = new CountDownLatch(1);
+    final String[] error = new String[1];
+    Promise promise = new PromiseImpl(
+      args -> done.countDown(),
+      args -> {
+        error[0] = String.valueOf(args.length > 0 ? args[0] : "rejected");
+        done.countDown();
+      }
+    );
+    long start = SystemClock.elapsedRealtimeNanos();
+    int req = requests.register(method, promise, DEFAULT_COMMAND_TIMEOUT_MS);
+    if (direct != null) {
+      if (!direct.sendCommand(req, method, payload)) {
+        requests.take(req);
+        throw new Exception(method + " is not a unary lndmobile method");
+      }
+    } else {
+      dispatchCommandToService(req, method, payload, null, promise);
+    }
+    if (!done.await(DEFAULT_COMMAND_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      requests.take(req);
+      throw new Exception(method + " timed out");
+    }
+    if (error[0] != null) {
+      throw new Exception(method + " failed: " + error[0]);
+    }
+    return SystemClock.elapsedRealtimeNanos() - start;
+  }
+
+  private static double average(long[] values) {
+    long sum = 0;
+    for (long v : values) {
+      sum += v;
+    }
+    return (double) sum / values.length;
+  }
+
+  private static long min(long[] values) {
+    long min = Long.MAX_VALUE;
+    for (long v : values) {
+      min = Math.min(min, v);
+    }
+    return min;
+  }
+
+  private void dispatchCommand(int req, String method, String payloadStr, @Nullable String priority, final Promise promise) {
+    long trace = BridgeTracer.begin("LndMobile.sendCommand");
+    try {
+      // Ends when the result is back in LndMobile
+      BridgeTracer.beginAsync("lnd " + method, req);
+      byte[] payload = Base64.decode(payloadStr, Base64.NO_WRAP);
+      BridgeMetrics.get().recordRequest(method, payload.length);
+      LndMobileDirect direct = this.direct;
+      if (directCallsEnabled && direct != null && direct.sendCommand(req, method, payload)) {
+        if (priority != null) {
+          // Lanes only exist in the service, a direct call has nothing to prioritise against
+          Log.d(TAG, "Ignoring priority " + priority + " for direct " + method);
+        }
+        return;
+      }
+      dispatchCommandToService(req, method, payload, priority, promise);
+    } finally {
+      BridgeTracer.end("LndMobile.sendCommand", trace);
+    }
+  }
 
+  private void dispatchCommandToService(int req, String method, byte[] payload, @Nullable String priority, final Promise promise) {
     Message message = Message.obtain(null, LndMobileService.MSG_GRPC_COMMAND, req, 0);
     message.replyTo = messenger;
 
     Bundle bundle = new Bundle();
     bundle.putString("method", method);
-    bundle.putByteArray("payload", Base64.decode(payloadStr, Base64.NO_WRAP));
+    if (priority != null) {
+      bundle.putString("priority", priority);
+    }
+    LndMobilePayloads.putPayload(bundle, "payload", payload);
     message.setData(bundle);
 
     if (lndMobileServiceMessenger != null) {
+      long trace = BridgeTracer.begin("LndMobile.binderSend");
       try {
         lndMobileServiceMessenger.send(message);
       } catch (RemoteException e) {
+        requests.take(req);
+        projectedRequests.remove(req);
         promise.reject(TAG, "Could not Send MSG_GRPC_COMMAND to LndMobileService", e);
+      } finally {
+        BridgeTracer.end("LndMobile.binderSend", trace);
       }
     } else {
+      requests.take(req);
+      projectedRequests.remove(req);
       promise.reject(TAG, "LndMobileService not connected");
     }
   }
 
   @ReactMethod
   public void sendStreamCommand(String method, String payloadStr, boolean streamOnlyOnce, Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.allocate();
 
     Message message = Message.obtain(null, LndMobileService.MSG_GRPC_STREAM_COMMAND, req, 0);
     message.replyTo = messenger;
 
     Bundle bundle = new Bundle();
     bundle.putString("method", method);
-    bundle.putByteArray("payload", Base64.decode(payloadStr, Base64.NO_WRAP));
+    LndMobilePayloads.putPayload(bundle, "payload", Base64.decode(payloadStr, Base64.NO_WRAP));
     bundle.putBoolean("stream_only_once", streamOnlyOnce);
     message.setData(bundle);
 
@@ -520,10 +1064,74 @@ class LndMobile extends ReactContextBaseJavaModule {
     promise.resolve("done");
   }
 
+  /**
+   * Drops this client's subscription to a server stream started with the same
+   * method and payload. lnd's subscription stays up for other subscribers.
+   */
+  @ReactMethod
+  public void unsubscribeStream(String method, String payloadStr, Promise promise) {
+    Message message = Message.obtain(null, LndMobileService.MSG_GRPC_STREAM_UNSUBSCRIBE, 0, 0);
+    message.replyTo = messenger;
+
+    Bundle bundle = new Bundle();
+    bundle.putString("method", method);
+    LndMobilePayloads.putPayload(bundle, "payload", Base64.decode(payloadStr, Base64.NO_WRAP));
+    message.setData(bundle);
+
+    if (lndMobileServiceMessenger == null) {
+      promise.reject(TAG, "LndMobileService not connected");
+      return;
+    }
+    try {
+      lndMobileServiceMessenger.send(message);
+    } catch (RemoteException e) {
+      promise.reject(TAG, "Could not Send MSG_GRPC_STREAM_UNSUBSCRIBE to LndMobileService", e);
+      return;
+    }
+
+    promise.resolve("done");
+  }
+
+  /**
+   * Opt a stream method into batched delivery: events are emitted as a single
+   * { batch: [...] } event every intervalMs, or once maxMessages have accumulated.
+   * An intervalMs of 0 switches back to one event per message.
+   */
+  @ReactMethod
+  public void setStreamBatching(String method, int intervalMs, int maxMessages, Promise promise) {
+    streamEventBatcher.configure(method, intervalMs, maxMessages);
+    promise.resolve(null);
+  }
+
+  /**
+   * Sets how a stream's events are delivered to JS: "lossless" (default), "conflate"
+   * (latest value only) or "bounded" (at most capacity queued, oldest dropped).
+   * With awaitAck, a conflate/bounded stream delivers one event at a time and
+   * waits for ackStreamEvent before delivering the next.
+   */
+  @ReactMethod
+  public void setStreamDeliveryPolicy(String method, String policy, int capacity, boolean awaitAck, Promise promise) {
+    try {
+      streamDeliveryQueue.configure(method, policy, capacity, awaitAck);
+      promise.resolve(null);
+    } catch (IllegalArgumentException e) {
+      promise.reject(TAG, e.getMessage());
+    }
+  }
+
+  @ReactMethod
+  public void ackStreamEvent(String method) {
+    streamDeliveryQueue.ack(method);
+  }
+
+  @ReactMethod
+  public void getStreamDeliveryStats(Promise promise) {
+    streamDeliveryQueue.getStats(promise);
+  }
+
   @ReactMethod
   public void sendBidiStreamCommand(String method, boolean streamOnlyOnce, Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.allocate();
 
     Message message = Message.obtain(null, LndMobileService.MSG_GRPC_BIDI_STREAM_COMMAND, req, 0);
     message.replyTo = messenger;
@@ -542,32 +1150,33 @@ class LndMobile extends ReactContextBaseJavaModule {
     promise.resolve("done");
   }
 
+  /**
+   * Resolves once lnd accepted the write, rejects with ResourceExhausted if too
+   * many writes are pending on the stream or with lnd's error if sending failed.
+   */
   @ReactMethod
   public void writeToStream(String method, String payloadStr, Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register(method, promise, 0);
 
     Message message = Message.obtain(null, LndMobileService.MSG_GRPC_STREAM_WRITE, req, 0);
     message.replyTo = messenger;
 
     Bundle bundle = new Bundle();
     bundle.putString("method", method);
-    bundle.putByteArray("payload", Base64.decode(payloadStr, Base64.NO_WRAP));
+    LndMobilePayloads.putPayload(bundle, "payload", Base64.decode(payloadStr, Base64.NO_WRAP));
     message.setData(bundle);
 
     try {
       lndMobileServiceMessenger.send(message);
     } catch (RemoteException e) {
+      requests.take(req);
       promise.reject(TAG, "Could not Send MSG_GRPC_STREAM_WRITE to LndMobileService", e);
     }
-
-    promise.resolve("done");
   }
 
   @ReactMethod
   void unlockWallet(String password, Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register("UnlockWallet", promise, 0);
 
     Message message = Message.obtain(null, LndMobileService.MSG_UNLOCKWALLET, req, 0);
     message.replyTo = messenger;
@@ -585,8 +1194,7 @@ class LndMobile extends ReactContextBaseJavaModule {
 
   @ReactMethod
   void initWallet(ReadableArray seed, String password, int recoveryWindow, String channelBackupsBase64, Promise promise) {
-    int req = new Random().nextInt();
-    requests.put(req, promise);
+    int req = requests.register("InitWallet", promise, 0);
 
     ArrayList<String> seedList = new ArrayList<>();
     for (int i = 0; i < seed.size(); i++) {
@@ -0,0 +1,97 @@
+package app.zeusln.zeus;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+
+/**
+ * Unary lnd calls made straight from LndMobile, skipping the Messenger hop to
+ * LndMobileService and back.
+ *
+ * Only usable when LndMobileService runs in the app's own process, since lnd
+ * itself lives in whichever process called Lndmobile.start. Replies are posted
+ * to LndMobile's IncomingHandler as the same MSG_GRPC_COMMAND_RESULT messages the
+ * service would send, so timeouts, cancellation and projections behave the same,
+ * but the Bundle never gets marshalled and no binder transaction is made.
+ *
+ * Streams, wallet unlock and start/stop keep going through the service.
+ *
+ * Everything LndMobileService does on the way to lnd is skipped too: no
+ * ResponseCache, no InflightCoalescer and no CommandLanes, so a call's
+ * CommandPriority class or requested priority has no effect here.
+ */
+class LndMobileDirect {
+  private static final String TAG = "LndMobileDirect";
+
+  private final Handler replyHandler;
+
+  LndMobileDirect(Handler replyHandler) {
+    this.replyHandler = replyHandler;
+  }
+
+  static boolean isServiceInProcess(Context context) {
+    try {
+      ServiceInfo info = context.getPackageManager().getServiceInfo(
+        new ComponentName(context, LndMobileService.class),
+        0
+      );
+      return info.processName == null || info.processName.equals(context.getApplicationInfo().processName);
+    } catch (PackageManager.NameNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns false if the method isn't a unary lndmobile call, in which case
+   * nothing was sent and the caller should fall back to the service.
+   */
+  boolean sendCommand(final int request, final String method, byte[] payload) {
+    if (LndBackend.get().kindOf(method) != LndMobileDispatcher.UNARY) {
+      return false;
+    }
+
+    long trace = BridgeTracer.begin("lndmobile." + method);
+    try {
+      LndBackend.get().unary(method, payload, new lndmobile.Callback() {
+        @Override
+        public void onError(Exception e) {
+          Bundle bundle = new Bundle();
+          String message = e.getMessage();
+          bundle.putString("method", method);
+          bundle.putString("error_code", LndErrors.code(message));
+          bundle.putString("error_desc", LndErrors.desc(message));
+          reply(request, bundle);
+        }
+
+        @Override
+        public void onResponse(byte[] bytes) {
+          Bundle bundle = new Bundle();
+          bundle.putString("method", method);
+          bundle.putByteArray("response", bytes);
+          reply(request, bundle);
+        }
+      });
+    } catch (Exception e) {
+      Log.e(TAG, "Could not invoke lndmobile method " + method, e);
+      Bundle bundle = new Bundle();
+      bundle.putString("method", method);
+      bundle.putString("error_code", "Error");
+      bundle.putString("error_desc", "Could not invoke lndmobile method " + method);
+      reply(request, bundle);
+    } finally {
+      BridgeTracer.end("lndmobile." + method, trace);
+    }
+    return true;
+  }
+
+  private void reply(int request, Bundle bundle) {
+    Message msg = Message.obtain(replyHandler, LndMobileService.MSG_GRPC_COMMAND_RESULT, request, 0);
+    msg.setData(bundle);
+    msg.sendToTarget();
+  }
+}
@@ -0,0 +1,107 @@
+package app.zeusln.zeus;
+
+import android.os.Bundle;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Size-aware payload transport for Bundles sent between LndMobile and LndMobileService.
+ *
+ * Small payloads go inline as a byte[]. Anything above SHARED_MEMORY_THRESHOLD is
+ * written once into an android.os.SharedMemory region and only the region's file
+ * descriptor travels through the binder transaction, which keeps large
+ * DescribeGraph/ListPayments/ListInvoices responses clear of the ~1MB binder limit.
+ *
+ * When LndMobileService runs in the app's process, Messenger hands the Bundle
+ * over without parceling it, so there is no binder limit and payloads always
+ * go inline.
+ */
+final class LndMobilePayloads {
+  private static final String TAG = "LndMobilePayloads";
+
+  static final int SHARED_MEMORY_THRESHOLD = 256 * 1024;
+
+  private static final String SHM_SUFFIX = "_shm";
+  private static final String LENGTH_SUFFIX = "_length";
+
+  private static volatile boolean serviceInProcess = false;
+
+  private LndMobilePayloads() {}
+
+  /**
+   * Set by both ends once they know where LndMobileService runs, see
+   * LndMobileDirect.isServiceInProcess.
+   */
+  static void setServiceInProcess(boolean inProcess) {
+    serviceInProcess = inProcess;
+  }
+
+  static void putPayload(Bundle bundle, String key, byte[] bytes) {
+    if (!serviceInProcess && bytes != null && bytes.length > SHARED_MEMORY_THRESHOLD) {
+      SharedMemory sharedMemory = toSharedMemory(key, bytes);
+      if (sharedMemory != null) {
+        // The sender never closes its handle: when both ends live in the same process
+        // the receiver gets this very object. SharedMemory's cleaner releases it on GC.
+        bundle.putParcelable(key + SHM_SUFFIX, sharedMemory);
+        bundle.putInt(key + LENGTH_SUFFIX, bytes.length);
+        return;
+      }
+    }
+    bundle.putByteArray(key, bytes);
+  }
+
+  /**
+   * Reads the payload under key. Call it only once per bundle: a shared
+   * memory payload is closed after reading, and when both ends share a
+   * process the sender's object is that same SharedMemory, so a second call
+   * throws IllegalStateException. Keep the returned bytes instead.
+   */
+  static byte[] getPayload(Bundle bundle, String key) {
+    if (bundle.containsKey(key + SHM_SUFFIX)) {
+      SharedMemory sharedMemory = bundle.getParcelable(key + SHM_SUFFIX);
+      int length = bundle.getInt(key + LENGTH_SUFFIX);
+      try {
+        return fromSharedMemory(sharedMemory, length);
+      } catch (ErrnoException e) {
+        Log.e(TAG, "Could not map shared memory for " + key, e);
+        return null;
+      } finally {
+        sharedMemory.close();
+      }
+    }
+    return bundle.getByteArray(key);
+  }
+
+  static boolean hasPayload(Bundle bundle, String key) {
+    return bundle.containsKey(key) || bundle.containsKey(key + SHM_SUFFIX);
+  }
+
+  static SharedMemory toSharedMemory(String name, byte[] bytes) {
+    try {
+      SharedMemory sharedMemory = SharedMemory.create("lndmobile_" + name, bytes.length);
+      ByteBuffer buffer = sharedMemory.mapReadWrite();
+      buffer.put(bytes);
+      SharedMemory.unmap(buffer);
+      sharedMemory.setProtect(OsConstants.PROT_READ);
+      return sharedMemory;
+    } catch (ErrnoException e) {
+      Log.w(TAG, "Could not create shared memory, falling back to Bundle", e);
+      return null;
+    }
+  }
+
+  static byte[] fromSharedMemory(SharedMemory sharedMemory, int length) throws ErrnoException {
+    ByteBuffer buffer = sharedMemory.mapReadOnly();
+    try {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return bytes;
+    } finally {
+      SharedMemory.unmap(buffer);
+    }
+  }
+}
@@ -201,7 +201,7 @@ public class LndMobileScheduledSyncWorker extends ListenableWorker {
                 }
                 case LndMobileService.MSG_GRPC_STREAM_RESULT: {
                   bundle = msg.getData();
-                  final byte[] response = bundle.getByteArray("response");
+                  final byte[] response = LndMobilePayloads.getPayload(bundle, "response");
                   final String method = bundle.getString("method");
 
                   if (method.equals("SubscribeState")) {
@@ -238,7 +238,7 @@ public class LndMobileScheduledSyncWorker extends ListenableWorker {
                 }
                 case LndMobileService.MSG_GRPC_COMMAND_RESULT: {
                   bundle = msg.getData();
-                  final byte[] response = bundle.getByteArray("response");
+                  final byte[] response = LndMobilePayloads.getPayload(bundle, "response");
                   final String method = bundle.getString("method");
 
                   if (method.equals("UnlockWallet")) {
@@ -19,6 +19,7 @@ import android.os.Message;
 import android.os.Messenger;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Base64;
 import android.util.Log;
 import android.content.pm.ServiceInfo;
@@ -29,15 +30,19 @@ import lndmobile.Lndmobile;
 import lndmobile.RecvStream;
 import lndmobile.SendStream;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import android.os.HandlerThread;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -48,12 +53,19 @@ import org.json.JSONObject;
 import com.reactnativecommunity.asyncstorage.AsyncLocalStorageUtil;
 import com.reactnativecommunity.asyncstorage.ReactDatabaseSupplier;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
 import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
 
 public class LndMobileService extends Service {
   private static final String TAG = "LndMobileService";
   private final int ONGOING_NOTIFICATION_ID = 1;
   boolean lndStarted = false;
+  private final AtomicReference<NativeJobExecutor.CancellationToken> gossipSyncToken = new AtomicReference<>();
   boolean subscribeInvoicesStreamActive = false;
   Set<String> streamsStarted = new HashSet<String>();
 
@@ -87,24 +99,77 @@ public class LndMobileService extends Service {
   static final int MSG_GOSSIP_SYNC_RESULT = 24;
   static final int MSG_CANCEL_GOSSIP_SYNC = 25;
   static final int MSG_CANCEL_GOSSIP_SYNC_RESULT = 26;
+  static final int MSG_GRPC_STREAM_RING_DOORBELL = 27;
+  static final int MSG_GRPC_STREAM_RING_PAYLOAD = 28;
+  static final int MSG_GET_LANE_METRICS = 30;
+  static final int MSG_LANE_METRICS = 31;
+  static final int MSG_GET_RESPONSE_CACHE_STATS = 32;
+  static final int MSG_RESPONSE_CACHE_STATS = 33;
+  static final int MSG_GRPC_STREAM_UNSUBSCRIBE = 34;
+  static final int MSG_GOSSIP_SYNC_PROGRESS = 35;
+
+  static final String SPEEDLOADER_STAGING_DIR = "speedloader";
+  // Download progress is sent at most this often, and while lnd inserts the graph this often regardless
+  private static final long GOSSIP_SYNC_PROGRESS_INTERVAL_MS = 250;
+  private static final long GOSSIP_SYNC_PROGRESS_HEARTBEAT_MS = 1000;
+  // lnd doesn't download the graph again this soon after a sync (see its lastrun file)
+  private static final long SPEEDLOADER_LASTRUN_FRESH_MS = 24 * 60 * 60 * 1000L;
+
+  private Map<String, lndmobile.SendStream> writeStreams = new java.util.concurrent.ConcurrentHashMap<>();
+  private final CommandLanes lanes = new CommandLanes();
+  private final ResponseCache responseCache = new ResponseCache();
+  private final InflightCoalescer inflight = new InflightCoalescer();
+  private StreamCursors streamCursors;
+  private final StreamHub streamHub = new StreamHub(new StreamHub.Delivery() {
+    @Override
+    public void deliverResponse(Messenger client, String method, byte[] bytes) {
+      deliverStreamResponse(client, method, bytes);
+    }
 
-  private Map<String, Method> syncMethods = new HashMap<>();
-  private Map<String, Method> streamMethods = new HashMap<>();
-  private Map<String, lndmobile.SendStream> writeStreams = new HashMap<>();
+    @Override
+    public void deliverError(Messenger client, String method, String errorCode, String errorDesc) {
+      deliverStreamError(client, method, errorCode, errorDesc);
+    }
 
-  private NotificationManager notificationManager;
-  private boolean isNotificationActive = false;
+    @Override
+    public void onUpstreamResponse(String method, byte[] bytes) {
+      responseCache.onEvent(method, bytes);
+      streamCursors.onEvent(method, bytes);
+      if ("SubscribeState".equals(method)) {
+        lnrpc.Stateservice.WalletState state = walletState(bytes);
+        if (state != null) {
+          LndStartupProfiler.get(LndMobileService.this).markWalletState(state.name());
+        }
+        if (state == lnrpc.Stateservice.WalletState.SERVER_ACTIVE) {
+          resumeParkedStreams();
+        }
+      }
+    }
+  });
+  // Drains run on the stream's serial lane, behind its opening
+  private final StreamWriteQueue writeQueue = new StreamWriteQueue(new StreamWriteQueue.Host() {
+    @Override
+    public lndmobile.SendStream streamFor(String method) {
+      return writeStreams.get(method);
+    }
 
-  private static boolean isReceiveStream(Method m) {
-    return m.toString().contains("RecvStream");
-  }
+    @Override
+    public void schedule(String method, Runnable drain) {
+      lanes.executeSerial(streamLane(method), CommandPriority.forMethod(method), drain);
+    }
 
-  private static boolean isSendStream(Method m) {
-      return m.toString().contains("SendStream");
-  }
+    @Override
+    public void acknowledge(Messenger client, String method, int[] requests, String errorCode, String errorDesc) {
+      acknowledgeStreamWrites(client, method, requests, errorCode, errorDesc);
+    }
+  });
+  private Map<IBinder, StreamRingBuffer> streamRings = new java.util.concurrent.ConcurrentHashMap<>();
 
-  private static boolean isStream(Method m) {
-      return isReceiveStream(m) || isSendStream(m);
+  private NotificationManager notificationManager;
+  private boolean isNotificationActive = false;
+
+  private static String streamLane(String method) {
+    return "stream:" + method;
   }
 
   class IncomingHandler extends Handler {
@@ -114,42 +179,65 @@ public class LndMobileService extends Service {
 
       @Override
       public void handleMessage(Message msg) {
+        long trace = BridgeTracer.begin("IncomingHandler.dequeue");
+        try {
+          handle(msg);
+        } finally {
+          BridgeTracer.end("IncomingHandler.dequeue", trace);
+        }
+      }
+
+      private void handle(Message msg) {
         Bundle bundle = msg.getData();
         final int request = msg.arg1;
 
         switch (msg.what) {
-          case MSG_REGISTER_CLIENT:
+          case MSG_REGISTER_CLIENT: {
             mClients.add(msg.replyTo);
-            sendToClient(msg.replyTo, Message.obtain(null, MSG_REGISTER_CLIENT_ACK, request, 0));
+            Message ack = Message.obtain(null, MSG_REGISTER_CLIENT_ACK, request, 0);
+            if (bundle.getBoolean("stream_ring", false) && StreamRingBuffer.isSupported()) {
+              StreamRingBuffer ring = createStreamRing(msg.replyTo);
+              if (ring != null) {
+                Bundle ackBundle = new Bundle();
+                ackBundle.putParcelable("stream_ring", ring.getSharedMemory());
+                ack.setData(ackBundle);
+              }
+            }
+            sendToClient(msg.replyTo, ack);
             //sendToClients(Message.obtain(null, MSG_REGISTER_CLIENT_ACK, request, 0));
             break;
+          }
 
           case MSG_UNREGISTER_CLIENT:
             mClients.remove(msg.replyTo);
+            closeStreamRing(msg.replyTo);
+            streamHub.removeClient(msg.replyTo);
             break;
 
           case MSG_START_LND:
             final String args = bundle.getString("args", "");
-            startLnd(msg.replyTo, args, request);
+            startLnd(msg.replyTo, args, request, false);
             break;
 
           case MSG_GRPC_COMMAND:
           case MSG_GRPC_STREAM_COMMAND:
           case MSG_GRPC_BIDI_STREAM_COMMAND: {
             final String method = bundle.getString("method");
-            Method m = syncMethods.get(method);
 
-            if (m == null) {
-              m = streamMethods.get(method);
+            if (LndBackend.get().kindOf(method) == LndMobileDispatcher.UNKNOWN) {
+              return;
+            }
 
-              if (m == null) {
-                return;
-              }
+            if (msg.what == MSG_GRPC_COMMAND) {
+              // getWhen() is when the message was enqueued, in uptimeMillis
+              BridgeMetrics.get().recordQueueWait(method, (SystemClock.uptimeMillis() - msg.getWhen()) * 1000000L);
+              BridgeTracer.span("IncomingHandler.queue", msg.getWhen() * 1000000L);
             }
 
             boolean streamOnlyOnce = bundle.getBoolean("stream_only_once");
 
-            if (msg.what == MSG_GRPC_STREAM_COMMAND || msg.what == MSG_GRPC_BIDI_STREAM_COMMAND) {
+            // Server streams are shared through streamHub, see below
+            if (msg.what == MSG_GRPC_BIDI_STREAM_COMMAND) {
               if (streamOnlyOnce) {
                 if (streamsStarted.contains(method)) {
                   return;
@@ -159,39 +247,111 @@ public class LndMobileService extends Service {
               streamsStarted.add(method);
             }
 
-            final byte[] b = bundle.getByteArray("payload");
-
-            try {
-              if (msg.what == MSG_GRPC_BIDI_STREAM_COMMAND) {
-                lndmobile.SendStream writeStream = (lndmobile.SendStream)m.invoke(
-                  null,
-                  new LndStreamCallback(msg.replyTo, method)
-                );
-                writeStreams.put(method, writeStream);
-              } else {
-                m.invoke(
-                  null,
-                  b,
-                  msg.what == MSG_GRPC_COMMAND
-                    ? new LndCallback(msg.replyTo, method, request)
-                    : new LndStreamCallback(msg.replyTo, method)
-                );
+            final byte[] b = LndMobilePayloads.getPayload(bundle, "payload");
+            final int what = msg.what;
+            final Messenger replyTo = msg.replyTo;
+
+            final ResponseCache.Key cacheKey;
+            final long cacheGeneration;
+            if (what == MSG_GRPC_COMMAND && ResponseCache.isCacheable(method)) {
+              cacheKey = new ResponseCache.Key(method, b);
+              byte[] cached = responseCache.get(cacheKey);
+              if (cached != null) {
+                // Straight back to the client, the response already went through respond()
+                sendCommandResult(replyTo, method, request, cached);
+                break;
               }
+              cacheGeneration = responseCache.generation(method);
+            } else {
+              cacheKey = null;
+              cacheGeneration = 0;
+            }
+
+            // Only the first subscriber to a server stream starts it in lnd
+            final StreamHub.Upstream upstream;
+            if (what == MSG_GRPC_STREAM_COMMAND) {
+              upstream = streamHub.subscribe(method, b, replyTo, bundle.getInt("replay", StreamHub.defaultReplay(method)));
+            } else {
+              upstream = null;
+            }
 
-              if (msg.what == MSG_GRPC_STREAM_COMMAND || msg.what == MSG_GRPC_BIDI_STREAM_COMMAND) {
-                Message message = Message.obtain(null, MSG_GRPC_STREAM_STARTED, request, 0);
-                Bundle sendBundle = new Bundle();
-                sendBundle.putString("method", method);
-                message.setData(sendBundle);
-                sendToClient(msg.replyTo, message);
+            // Identical read-only calls already in flight answer this one too
+            final lndmobile.Callback unaryCallback;
+            final ResponseCache.Key coalesceKey;
+            if (what == MSG_GRPC_COMMAND && InflightCoalescer.isCoalescable(method)) {
+              coalesceKey = cacheKey != null ? cacheKey : new ResponseCache.Key(method, b);
+              if (!inflight.join(coalesceKey, new LndCallback(replyTo, method, request).cacheAs(cacheKey, cacheGeneration))) {
+                break;
               }
+              unaryCallback = inflight.leaderCallback(coalesceKey);
+            } else {
+              coalesceKey = null;
+              unaryCallback = new LndCallback(replyTo, method, request).cacheAs(cacheKey, cacheGeneration);
+            }
 
-            } catch (IllegalAccessException e) {
-              Log.e(TAG, "Could not invoke lndmobile method " + method, e);
-              // TODO(hsjoberg) send error response to client?
-            } catch (InvocationTargetException e) {
-              Log.e(TAG, "Could not invoke lndmobile method " + method, e);
-              // TODO(hsjoberg) send error response to client?
+            Runnable invoke = new Runnable() {
+              @Override
+              public void run() {
+                long trace = BridgeTracer.begin("lndmobile." + method);
+                try {
+                  boolean dispatched;
+                  if (what == MSG_GRPC_BIDI_STREAM_COMMAND) {
+                    lndmobile.SendStream writeStream = LndBackend.get().bidiStream(
+                      method,
+                      new LndStreamCallback(replyTo, method)
+                    );
+                    dispatched = writeStream != null;
+                    if (dispatched) {
+                      writeStreams.put(method, writeStream);
+                    }
+                  } else if (what == MSG_GRPC_STREAM_COMMAND) {
+                    dispatched = upstream == null || startUpstream(upstream);
+                  } else {
+                    dispatched = LndBackend.get().unary(method, b, unaryCallback);
+                  }
+
+                  if (!dispatched) {
+                    Log.e(TAG, "Method " + method + " can't be called as " + what);
+                    // Don't leave callers that joined this call or stream hanging
+                    if (coalesceKey != null) {
+                      unaryCallback.onError(new Exception("Method " + method + " is not unary"));
+                    }
+                    if (upstream != null) {
+                      upstream.onError(new Exception("Method " + method + " is not a server stream"));
+                    }
+                    // TODO(hsjoberg) send error response to client?
+                    return;
+                  }
+
+                  if (what == MSG_GRPC_STREAM_COMMAND || what == MSG_GRPC_BIDI_STREAM_COMMAND) {
+                    Message message = Message.obtain(null, MSG_GRPC_STREAM_STARTED, request, 0);
+                    Bundle sendBundle = new Bundle();
+                    sendBundle.putString("method", method);
+                    message.setData(sendBundle);
+                    sendToClient(replyTo, message);
+                  }
+
+                } catch (Exception e) {
+                  Log.e(TAG, "Could not invoke lndmobile method " + method, e);
+                  if (coalesceKey != null) {
+                    unaryCallback.onError(e);
+                  }
+                  if (upstream != null) {
+                    upstream.onError(e);
+                  }
+                  // TODO(hsjoberg) send error response to client?
+                } finally {
+                  BridgeTracer.end("lndmobile." + method, trace);
+                }
+              }
+            };
+
+            final int priority = CommandPriority.resolve(method, bundle.getString("priority"));
+            if (what == MSG_GRPC_COMMAND) {
+              lanes.execute(priority, invoke);
+            } else {
+              // Writes to a bidi stream must not overtake its opening
+              lanes.executeSerial(streamLane(method), priority, invoke);
             }
 
             break;
@@ -215,10 +375,14 @@ public class LndMobileService extends Service {
             lnrpc.Walletunlocker.UnlockWalletRequest.Builder unlockWallet = lnrpc.Walletunlocker.UnlockWalletRequest.newBuilder();
             unlockWallet.setWalletPassword(ByteString.copyFromUtf8(password));
 
-            Lndmobile.unlockWallet(
-              unlockWallet.build().toByteArray(),
-              new LndCallback(msg.replyTo, "UnlockWallet", request)
-            );
+            final byte[] unlockWalletRequest = unlockWallet.build().toByteArray();
+            final LndCallback unlockWalletCallback = new LndCallback(msg.replyTo, "UnlockWallet", request);
+            lanes.executeControl(new Runnable() {
+              @Override
+              public void run() {
+                Lndmobile.unlockWallet(unlockWalletRequest, unlockWalletCallback);
+              }
+            });
             break;
           }
 
@@ -244,15 +408,26 @@ public class LndMobileService extends Service {
               );
             }
 
-            Lndmobile.initWallet(
-              initWallet.build().toByteArray(),
-              new LndCallback(msg.replyTo, "InitWallet", request)
-            );
+            final byte[] initWalletRequest = initWallet.build().toByteArray();
+            final LndCallback initWalletCallback = new LndCallback(msg.replyTo, "InitWallet", request);
+            lanes.executeControl(new Runnable() {
+              @Override
+              public void run() {
+                Lndmobile.initWallet(initWalletRequest, initWalletCallback);
+              }
+            });
             break;
 
-          case MSG_STOP_LND:
-            stopLnd(msg.replyTo, request);
+          case MSG_STOP_LND: {
+            final Messenger replyTo = msg.replyTo;
+            lanes.executeControl(new Runnable() {
+              @Override
+              public void run() {
+                stopLnd(replyTo, request);
+              }
+            });
             break;
+          }
 
           case MSG_GOSSIP_SYNC:
             final String serviceUrl = bundle.getString("serviceUrl", "");
@@ -269,25 +444,45 @@ public class LndMobileService extends Service {
             sendToClient(msg.replyTo, Message.obtain(null, MSG_PONG, request, 0));
             break;
 
-          case MSG_GRPC_STREAM_WRITE:
+          case MSG_GRPC_STREAM_WRITE: {
             final String method = bundle.getString("method");
-            final byte[] payload = bundle.getByteArray("payload");
-
-            lndmobile.SendStream s = writeStreams.get(method);
-
-            try {
-              s.send(payload);
-            } catch (Throwable error) {
-              // TODO(hsjoberg): Handle errors
+            final byte[] payload = LndMobilePayloads.getPayload(bundle, "payload");
+
+            if (!writeQueue.offer(method, msg.replyTo, request, payload)) {
+              acknowledgeStreamWrites(
+                msg.replyTo,
+                method,
+                new int[] { request },
+                "ResourceExhausted",
+                "More than " + StreamWriteQueue.CAPACITY + " writes pending on " + method
+              );
             }
+            break;
+          }
+
+          case MSG_GRPC_STREAM_UNSUBSCRIBE:
+            streamHub.unsubscribe(
+              bundle.getString("method"),
+              LndMobilePayloads.getPayload(bundle, "payload"),
+              msg.replyTo
+            );
+            break;
 
-            Message message = Message.obtain(null, MSG_GRPC_STREAM_WRITE_RESULT, request, 0);
-            Bundle sendBundle = new Bundle();
-            sendBundle.putString("method", method);
-            message.setData(sendBundle);
+          case MSG_GET_RESPONSE_CACHE_STATS: {
+            Message message = Message.obtain(null, MSG_RESPONSE_CACHE_STATS, request, 0);
+            Bundle stats = responseCache.getStats();
+            stats.putDouble("coalesced", inflight.getCoalescedCount());
+            message.setData(stats);
             sendToClient(msg.replyTo, message);
+            break;
+          }
 
+          case MSG_GET_LANE_METRICS: {
+            Message message = Message.obtain(null, MSG_LANE_METRICS, request, 0);
+            message.setData(lanes.getMetrics());
+            sendToClient(msg.replyTo, message);
             break;
+          }
 
           default:
             super.handleMessage(msg);
@@ -299,6 +494,8 @@ public class LndMobileService extends Service {
     private final Messenger recipient;
     private final String method;
     private final int request;
+    private ResponseCache.Key cacheKey;
+    private long cacheGeneration;
 
     LndCallback(Messenger recipient, String method, int request) {
       this.recipient = recipient;
@@ -306,45 +503,71 @@ public class LndMobileService extends Service {
       this.request = request;
     }
 
+    /**
+     * Stores a successful response in the response cache under key.
+     */
+    LndCallback cacheAs(ResponseCache.Key key, long generation) {
+      this.cacheKey = key;
+      this.cacheGeneration = generation;
+      return this;
+    }
+
     @Override
     public void onError(Exception e) {
+      long trace = BridgeTracer.begin("LndCallback.onError");
       Message msg = Message.obtain(null, MSG_GRPC_COMMAND_RESULT, request, 0);
 
       Bundle bundle = new Bundle();
       String message = e.getMessage();
 
       bundle.putString("method", method);
-
-      if (message.contains("code = ") && message.contains("desc = ")) {
-        bundle.putString("error_code", message.substring(message.indexOf("code = ") + 7, message.indexOf(" desc = ")));
-        bundle.putString("error_desc", message.substring(message.indexOf("desc = ") + 7));
-      }
-      else {
-        bundle.putString("error_code", "Error");
-        bundle.putString("error_desc", message);
-      }
+      bundle.putString("error_code", LndErrors.code(message));
+      bundle.putString("error_desc", LndErrors.desc(message));
 
       bundle.putString("error", message);
       msg.setData(bundle);
 
       sendToClient(recipient, msg);
       //sendToClients(msg);
+      BridgeTracer.end("LndCallback.onError", trace);
     }
 
     @Override
     public void onResponse(byte[] bytes) {
-      Message msg = Message.obtain(null, MSG_GRPC_COMMAND_RESULT, request, 0);
+      long trace = BridgeTracer.begin("LndCallback.onResponse");
+      try {
+        respond(bytes);
+      } finally {
+        BridgeTracer.end("LndCallback.onResponse", trace);
+      }
+    }
 
-      Bundle bundle = new Bundle();
-      bundle.putByteArray("response", bytes);
-      bundle.putString("method", method);
-      msg.setData(bundle);
+    private void respond(byte[] bytes) {
+      responseCache.onEvent(method, bytes);
+      if (cacheKey != null) {
+        responseCache.put(cacheKey, cacheGeneration, bytes);
+      }
+      // lnd answering GetInfo is serving again, whether or not anyone watches SubscribeState
+      if ("GetInfo".equals(method)) {
+        resumeParkedStreams();
+      }
 
-      sendToClient(recipient, msg);
-      //sendToClients(msg);
+      sendCommandResult(recipient, method, request, bytes);
     }
   }
 
+  private void sendCommandResult(Messenger recipient, String method, int request, byte[] bytes) {
+    Message msg = Message.obtain(null, MSG_GRPC_COMMAND_RESULT, request, 0);
+
+    Bundle bundle = new Bundle();
+    LndMobilePayloads.putPayload(bundle, "response", bytes);
+    bundle.putString("method", method);
+    msg.setData(bundle);
+
+    sendToClient(recipient, msg);
+    //sendToClients(msg);
+  }
+
   class LndStreamCallback implements lndmobile.RecvStream {
     private final Messenger recipient;
     private final String method;
@@ -356,53 +579,249 @@ public class LndMobileService extends Service {
 
     @Override
     public void onError(Exception e) {
-      Message msg = Message.obtain(null, MSG_GRPC_STREAM_RESULT, 0, 0);
-
-      Bundle bundle = new Bundle();
       String message = e.getMessage();
+      String errorCode = LndErrors.code(message);
+      String errorDesc = LndErrors.desc(message);
 
-      bundle.putString("method", method);
+      // Nothing more can be written to a stream lnd closed
+      writeStreams.remove(method);
+      writeQueue.fail(method, errorCode, errorDesc);
+      deliverStreamError(recipient, method, errorCode, errorDesc);
+    }
 
-      if (message.contains("code = ") && message.contains("desc = ")) {
-        bundle.putString("error_code", message.substring(message.indexOf("code = ") + 7, message.indexOf(" desc = ")));
-        bundle.putString("error_desc", message.substring(message.indexOf("desc = ") + 7));
-      }
-      else {
-        bundle.putString("error_code", "Error");
-        bundle.putString("error_desc", message);
-      }
+    @Override
+    public void onResponse(byte[] bytes) {
+      responseCache.onEvent(method, bytes);
+      deliverStreamResponse(recipient, method, bytes);
+    }
+  }
 
-      msg.setData(bundle);
+  /**
+   * Starts the lnd subscription for upstream, from the persisted cursors if the
+   * stream is resumable. Returns false if method isn't a server stream.
+   */
+  private boolean startUpstream(final StreamHub.Upstream upstream) throws Exception {
+    String method = upstream.key.method;
+    if (!LndBackend.get().serverStream(method, streamCursors.resumeRequest(method, upstream.key.request), upstream)) {
+      return false;
+    }
 
-      sendToClient(recipient, msg);
-      //sendToClients(msg);
+    // Started first so that nothing falls between the backfill and the live stream.
+    // A payment in both arrives twice, which is just another update for it.
+    byte[] backfill = streamCursors.backfillRequest(method);
+    if (backfill != null) {
+      LndBackend.get().unary("ListPayments", backfill, new lndmobile.Callback() {
+        @Override
+        public void onError(Exception e) {
+          Log.w(TAG, "Could not backfill " + upstream.key.method, e);
+        }
+
+        @Override
+        public void onResponse(byte[] bytes) {
+          try {
+            for (lnrpc.LightningOuterClass.Payment payment : lnrpc.LightningOuterClass.ListPaymentsResponse.parseFrom(bytes).getPaymentsList()) {
+              upstream.onResponse(payment.toByteArray());
+            }
+          } catch (InvalidProtocolBufferException e) {
+            Log.w(TAG, "Could not parse " + upstream.key.method + " backfill", e);
+          }
+        }
+      });
     }
+    return true;
+  }
 
-    @Override
-    public void onResponse(byte[] bytes) {
-      Message msg = Message.obtain(null, MSG_GRPC_STREAM_RESULT, 0, 0);
+  private void resumeParkedStreams() {
+    for (final StreamHub.Upstream upstream : streamHub.takeParked()) {
+      final String method = upstream.key.method;
+      lanes.executeSerial(streamLane(method), CommandPriority.forMethod(method), new Runnable() {
+        @Override
+        public void run() {
+          try {
+            startUpstream(upstream);
+          } catch (Exception e) {
+            Log.e(TAG, "Could not resume " + method, e);
+            upstream.onError(e);
+          }
+        }
+      });
+    }
+  }
 
-      Bundle bundle = new Bundle();
-      bundle.putByteArray("response", bytes);
-      bundle.putString("method", method);
-      msg.setData(bundle);
+  private static lnrpc.Stateservice.WalletState walletState(byte[] bytes) {
+    try {
+      return lnrpc.Stateservice.SubscribeStateResponse.parseFrom(bytes).getState();
+    } catch (InvalidProtocolBufferException e) {
+      return null;
+    }
+  }
 
-      sendToClient(recipient, msg);
-      //sendToClients(msg);
+  private void deliverStreamResponse(Messenger recipient, String method, byte[] bytes) {
+    if (deliverThroughStreamRing(recipient, method, bytes, null, null)) {
+      return;
     }
+    sendToClient(recipient, streamResultMessage(method, bytes, null, null, 0));
   }
 
-  void gossipSync(Messenger recipient, String serviceUrl, String lndDir, boolean isSqlite, int request) {
-    Runnable gossipSync = new Runnable() {
-      public void run() {
+  private void deliverStreamError(Messenger recipient, String method, String errorCode, String errorDesc) {
+    if (deliverThroughStreamRing(recipient, method, null, errorCode, errorDesc)) {
+      return;
+    }
+    sendToClient(recipient, streamResultMessage(method, null, errorCode, errorDesc, 0));
+  }
+
+  /**
+   * A stream event as a regular message, spill being its number if it
+   * overflowed the client's ring and 0 otherwise.
+   */
+  private Message streamResultMessage(String method, byte[] bytes, String errorCode, String errorDesc, int spill) {
+    Message msg = Message.obtain(null, MSG_GRPC_STREAM_RESULT, spill, 0);
+
+    Bundle bundle = new Bundle();
+    bundle.putString("method", method);
+    if (errorCode != null) {
+      bundle.putString("error_code", errorCode);
+      bundle.putString("error_desc", errorDesc);
+    } else {
+      LndMobilePayloads.putPayload(bundle, "response", bytes);
+    }
+    msg.setData(bundle);
+    return msg;
+  }
+
+  /**
+   * Acknowledges MSG_GRPC_STREAM_WRITE requests, successful if errorCode is null.
+   */
+  private void acknowledgeStreamWrites(Messenger recipient, String method, int[] requests, String errorCode, String errorDesc) {
+    Message msg = Message.obtain(null, MSG_GRPC_STREAM_WRITE_RESULT, requests[0], 0);
+
+    Bundle bundle = new Bundle();
+    bundle.putString("method", method);
+    bundle.putIntArray("requests", requests);
+    if (errorCode != null) {
+      bundle.putString("error_code", errorCode);
+      bundle.putString("error_desc", errorDesc);
+    }
+    msg.setData(bundle);
+
+    sendToClient(recipient, msg);
+  }
+
+  private StreamRingBuffer createStreamRing(Messenger client) {
+    closeStreamRing(client);
+    try {
+      StreamRingBuffer ring = StreamRingBuffer.create(StreamRingBuffer.DEFAULT_SIZE);
+      streamRings.put(client.getBinder(), ring);
+      return ring;
+    } catch (android.system.ErrnoException e) {
+      Log.w(TAG, "Could not create stream ring, using messages for stream events", e);
+      return null;
+    }
+  }
+
+  private void closeStreamRing(Messenger client) {
+    if (client == null) {
+      return;
+    }
+    StreamRingBuffer ring = streamRings.remove(client.getBinder());
+    if (ring != null) {
+      ring.close();
+    }
+  }
+
+  /**
+   * Appends a stream event to the client's ring if it has one, or spills it
+   * into a message while the ring is full.
+   * Returns false if the client has no ring and the event has to go out as a
+   * regular MSG_GRPC_STREAM_RESULT.
+   */
+  private boolean deliverThroughStreamRing(Messenger recipient, String method, byte[] bytes, String errorCode, String errorDesc) {
+    StreamRingBuffer ring = streamRings.get(recipient.getBinder());
+    if (ring == null) {
+      return false;
+    }
+
+    // Serializes producers (lnd calls back from several goroutines) so that
+    // side payload messages leave in the same order as their ring records
+    synchronized (ring) {
+      if (ring.isClosed()) {
+        return false;
+      }
+
+      int result;
+      if (errorCode != null) {
+        result = ring.offerError(method, errorCode, errorDesc);
+      } else if (bytes != null && bytes.length > StreamRingBuffer.MAX_INLINE_PAYLOAD) {
+        int sequence = ring.nextSequence();
+        result = ring.offerSidePayload(method, sequence);
+        if (result != StreamRingBuffer.OFFER_FULL) {
+          Message payloadMsg = Message.obtain(null, MSG_GRPC_STREAM_RING_PAYLOAD, sequence, 0);
+          Bundle payloadBundle = new Bundle();
+          LndMobilePayloads.putPayload(payloadBundle, "response", bytes);
+          payloadMsg.setData(payloadBundle);
+          sendToClient(recipient, payloadMsg);
+        }
+      } else {
+        result = ring.offerResponse(method, bytes != null ? bytes : new byte[0]);
+      }
+
+      if (result == StreamRingBuffer.OFFER_FULL) {
+        // The client isn't keeping up. Waiting here would block lnd's callback thread and
+        // every other producer, so this event goes out as a message, sent under the lock
+        // so that it can't overtake a later one. The ring stays attached and takes events
+        // again once the client has handled every spilled message.
+        sendToClient(recipient, streamResultMessage(method, bytes, errorCode, errorDesc, ring.spill()));
+        return true;
+      }
+
+      if (result == StreamRingBuffer.OFFER_WRITTEN_DOORBELL) {
+        sendToClient(recipient, Message.obtain(null, MSG_GRPC_STREAM_RING_DOORBELL, 0, 0));
+      }
+      return true;
+    }
+  }
+
+  void gossipSync(final Messenger recipient, final String serviceUrl, final String lndDir, final boolean isSqlite, final int request) {
+    final NativeJobExecutor.CancellationToken syncToken = new NativeJobExecutor.CancellationToken();
+    final GossipSyncProgress progress = new GossipSyncProgress(recipient, request);
+    gossipSyncToken.set(syncToken);
+
+    ListenableFuture<Void> job = NativeJobExecutor.get().submitDedicated("gossipSync", NativeJobExecutor.PRIORITY_BACKGROUND, syncToken, new NativeJobExecutor.Job() {
+      @Override
+      public void run(NativeJobExecutor.CancellationToken token) throws InterruptedException {
         String dataDir;
         if (lndDir.equals("lnd")) {
           dataDir = getApplicationContext().getFilesDir().getAbsolutePath();
         } else {
           dataDir = getApplicationContext().getFilesDir().getAbsolutePath() + "/" + lndDir;
         }
+        final StagedGraphServer stagedGraph = stageSpeedloaderGraph(serviceUrl, dataDir, token, progress);
+        if (token.isCancelled()) {
+          if (stagedGraph != null) {
+            stagedGraph.close();
+          }
+          Message msg = Message.obtain(null, MSG_GOSSIP_SYNC_RESULT, request, 0);
+
+          Bundle bundle = new Bundle();
+          bundle.putString("error_code", "Gossip Error");
+          bundle.putString("error_desc", "Gossip sync cancelled");
+          msg.setData(bundle);
+
+          sendToClient(recipient, msg);
+          return;
+        }
+
+        token.onCancel(new Runnable() {
+          @Override
+          public void run() {
+            Lndmobile.cancelGossipSync();
+          }
+        });
+        // Holds the job until lnd calls back, so its runtime covers the whole sync
+        final CountDownLatch done = new CountDownLatch(1);
+        progress.send("insert");
         Lndmobile.gossipSync(
-          serviceUrl,
+          stagedGraph != null ? stagedGraph.url() : serviceUrl,
           getApplicationContext().getCacheDir().getAbsolutePath(),
           dataDir,
           "",
@@ -420,6 +839,7 @@ public class LndMobileService extends Service {
 
             sendToClient(recipient, msg);
             // sendToClients(msg);
+            done.countDown();
           }
 
           @Override
@@ -432,51 +852,177 @@ public class LndMobileService extends Service {
 
             sendToClient(recipient, msg);
             // sendToClients(msg);
+            done.countDown();
           }
         });
+        try {
+          while (!done.await(GOSSIP_SYNC_PROGRESS_HEARTBEAT_MS, TimeUnit.MILLISECONDS)) {
+            progress.send("insert");
+          }
+        } finally {
+          if (stagedGraph != null) {
+            stagedGraph.close();
+          }
+        }
       }
-    };
+    });
 
-    new Thread(gossipSync).start();
+    // Forgets the sync once its job is over. A sync cancelled or rejected before it started never reaches lnd, so answer for it here
+    Futures.addCallback(job, new FutureCallback<Void>() {
+      @Override
+      public void onSuccess(Void result) {
+        gossipSyncToken.compareAndSet(syncToken, null);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        gossipSyncToken.compareAndSet(syncToken, null);
+        if (t instanceof CancellationException || t instanceof RejectedExecutionException) {
+          Message msg = Message.obtain(null, MSG_GOSSIP_SYNC_RESULT, request, 0);
+
+          Bundle bundle = new Bundle();
+          bundle.putString("error_code", "Gossip Error");
+          bundle.putString("error_desc", t.toString());
+          msg.setData(bundle);
+
+          sendToClient(recipient, msg);
+        }
+      }
+    }, MoreExecutors.directExecutor());
   }
 
-  void startLnd(Messenger recipient, String args, int request) {
-    Runnable startLnd = new Runnable() {
+  /**
+   * Fetches the speedloader graph into the cache dir with SpeedloaderDownloader
+   * and serves it to lnd from loopback. Returns null, and lnd downloads from
+   * serviceUrl itself as before, if lnd synced recently enough to skip the
+   * download, the wallet isn't on a network speedloader servers publish a
+   * graph for, or the prefetch failed.
+   */
+  private StagedGraphServer stageSpeedloaderGraph(String serviceUrl, String dataDir, NativeJobExecutor.CancellationToken token, SpeedloaderDownloader.Listener listener) {
+    String network = SpeedloaderDownloader.networkFromConf(new File(dataDir, "lnd.conf"));
+    String graphUrl = SpeedloaderDownloader.graphUrl(serviceUrl, network);
+    if (graphUrl == null) {
+      Log.i(TAG, "No speedloader graph to prefetch for network " + network);
+      return null;
+    }
+
+    File cacheDir = getApplicationContext().getCacheDir();
+    File lastRun = new File(cacheDir, "lastrun");
+    if (lastRun.isFile() && System.currentTimeMillis() - lastRun.lastModified() < SPEEDLOADER_LASTRUN_FRESH_MS) {
+      return null;
+    }
 
+    final SpeedloaderDownloader downloader = new SpeedloaderDownloader(new File(cacheDir, SPEEDLOADER_STAGING_DIR));
+    token.onCancel(new Runnable() {
       @Override
       public void run() {
-        Lndmobile.start(args, new lndmobile.Callback() {
+        downloader.cancel();
+      }
+    });
+    try {
+      SpeedloaderDownloader.StagedGraph graph = downloader.fetch(graphUrl, listener);
+      Log.i(TAG, "Speedloader graph " + (graph.downloaded ? "downloaded" : "still fresh") + ", sha256 " + graph.sha256);
+      return StagedGraphServer.start(graph);
+    } catch (IOException e) {
+      Log.w(TAG, "Could not prefetch speedloader graph, leaving the download to lnd", e);
+      return null;
+    }
+  }
 
-          @Override
-          public void onError(Exception e) {
-            Message msg = Message.obtain(null, MSG_START_LND_RESULT, request, 0);
+  /**
+   * Sends MSG_GOSSIP_SYNC_PROGRESS for one gossip sync, with stage, the
+   * downloadedBytes and totalBytes of the prefetch (totalBytes is -1 while
+   * unknown) and elapsedMs since the sync was requested. Stages are download
+   * and decode while the graph is prefetched, then insert while lnd takes it
+   * in, which includes lnd's own download when there was no prefetch.
+   */
+  private final class GossipSyncProgress implements SpeedloaderDownloader.Listener {
+    private final Messenger recipient;
+    private final int request;
+    private final long startedAt = SystemClock.elapsedRealtime();
+    private long downloaded;
+    private long total = -1;
+    private long lastSentAt;
 
-            Bundle bundle = new Bundle();
-            bundle.putString("error_code", "Lnd Startup Error");
-            bundle.putString("error_desc", e.toString());
-            msg.setData(bundle);
+    GossipSyncProgress(Messenger recipient, int request) {
+      this.recipient = recipient;
+      this.request = request;
+    }
 
-            sendToClient(recipient, msg);
-            // sendToClients(msg);
-          }
+    @Override
+    public void onDownloadProgress(long downloaded, long total) {
+      this.downloaded = downloaded;
+      this.total = total;
+      if (downloaded == total || SystemClock.elapsedRealtime() - lastSentAt >= GOSSIP_SYNC_PROGRESS_INTERVAL_MS) {
+        send("download");
+      }
+    }
 
-          @Override
-          public void onResponse(byte[] bytes) {
-            lndStarted = true;
-            Message msg = Message.obtain(null, MSG_START_LND_RESULT, request, 0);
+    @Override
+    public void onVerifying() {
+      send("decode");
+    }
 
-            Bundle bundle = new Bundle();
-            bundle.putByteArray("response", bytes);
-            msg.setData(bundle);
+    void send(String stage) {
+      lastSentAt = SystemClock.elapsedRealtime();
+      Message msg = Message.obtain(null, MSG_GOSSIP_SYNC_PROGRESS, request, 0);
 
-            sendToClient(recipient, msg);
-            // sendToClients(msg);
-          }
-        });
+      Bundle bundle = new Bundle();
+      bundle.putString("stage", stage);
+      bundle.putDouble("downloadedBytes", downloaded);
+      bundle.putDouble("totalBytes", total);
+      bundle.putDouble("elapsedMs", lastSentAt - startedAt);
+      msg.setData(bundle);
+
+      sendToClient(recipient, msg);
+    }
+  }
+
+  void startLnd(final Messenger recipient, final String args, final int request, boolean warm) {
+    // Attaches to a warm start with the same arguments rather than starting lnd twice
+    ListenableFuture<byte[]> started = LndWarmStart.start(this, args, warm, new Executor() {
+      @Override
+      public void execute(Runnable runnable) {
+        lanes.executeControl(runnable);
       }
-    };
+    }, new Runnable() {
+      @Override
+      public void run() {
+        // Only for an lnd that actually starts, a rejected start leaves the running one alone
+        streamCursors.setScope(StreamCursors.scopeFromArgs(args));
+        // Responses from a previous lnd, possibly another wallet's, mustn't be served
+        responseCache.clear();
+      }
+    });
+
+    Futures.addCallback(started, new FutureCallback<byte[]>() {
+      @Override
+      public void onFailure(Throwable t) {
+        Message msg = Message.obtain(null, MSG_START_LND_RESULT, request, 0);
+
+        Bundle bundle = new Bundle();
+        bundle.putString("error_code", "Lnd Startup Error");
+        bundle.putString("error_desc", t.toString());
+        msg.setData(bundle);
+
+        sendToClient(recipient, msg);
+        // sendToClients(msg);
+      }
+
+      @Override
+      public void onSuccess(byte[] bytes) {
+        lndStarted = true;
+        LndWarmStart.rememberArgs(LndMobileService.this, args);
+        Message msg = Message.obtain(null, MSG_START_LND_RESULT, request, 0);
+
+        Bundle bundle = new Bundle();
+        bundle.putByteArray("response", bytes);
+        msg.setData(bundle);
 
-    new Thread(startLnd).start();
+        sendToClient(recipient, msg);
+        // sendToClients(msg);
+      }
+    }, MoreExecutors.directExecutor());
   }
 
   void sendToClient(Messenger receiver, Message msg) {
@@ -488,6 +1034,8 @@ public class LndMobileService extends Service {
       mClients.get(i).send(msg);
     } catch(RemoteException e) {
       mClients.remove(i);
+      closeStreamRing(receiver);
+      streamHub.removeClient(receiver);
     }
   }
 
@@ -574,6 +1122,14 @@ public class LndMobileService extends Service {
         mClients.add(messenger);
         stopLnd(messenger, -1);
         return START_NOT_STICKY;
+      } else if (intent.getAction().equals(LndWarmStart.ACTION)) {
+        String args = intent.getStringExtra("args");
+        if (args != null) {
+          Log.i(TAG, "Warm starting lnd");
+          // No client yet, the result is picked up when JS calls startLnd
+          startLnd(null, args, -1, true);
+        }
+        return START_NOT_STICKY;
       } else if (intent.getAction().equals("app.zeusln.zeus.android.intent.action.UPDATE_NOTIFICATION")) {
         // Only refresh an existing notification — don't recreate one that's
         // been dismissed (e.g. by setPersistentMode(false) on wallet switch).
@@ -705,6 +1261,8 @@ public class LndMobileService extends Service {
     super.onCreate();
     handlerThread = new HandlerThread("LndMobileService");
     handlerThread.start();
+    streamCursors = new StreamCursors(this);
+    LndMobilePayloads.setServiceInProcess(LndMobileDirect.isServiceInProcess(this));
     messenger = new Messenger(new IncomingHandler(handlerThread.getLooper()));
     notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
     if (!getPersistentServicesEnabled(this)) {
@@ -725,6 +1283,7 @@ public class LndMobileService extends Service {
       handlerThread.quitSafely();
       handlerThread = null;
     }
+    lanes.shutdown();
     super.onDestroy();
   }
 
@@ -748,21 +1307,6 @@ public class LndMobileService extends Service {
     super.onTaskRemoved(rootIntent);
   }
 
-  public LndMobileService() {
-    Method[] methods = Lndmobile.class.getDeclaredMethods();
-
-    for (Method m : methods) {
-      String name = m.getName();
-      name = name.substring(0, 1).toUpperCase() + name.substring(1);
-
-      if (isStream(m)) {
-        streamMethods.put(name, m);
-      } else {
-        syncMethods.put(name, m);
-      }
-    }
-  }
-
   private boolean checkLndProcessExists() {
     String packageName = getApplicationContext().getPackageName();
     ActivityManager am = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
@@ -813,6 +1357,9 @@ public class LndMobileService extends Service {
         @Override
         public void onResponse(byte[] bytes) {
           lndStarted = false;
+          LndWarmStart.onStopped();
+          streamHub.clear();
+          responseCache.clear();
 
           if (recipient != null) {
             Message msg = Message.obtain(null, MSG_STOP_LND_RESULT, request, 0);
@@ -833,6 +1380,20 @@ public class LndMobileService extends Service {
       notificationManager.cancelAll();
     }
     isNotificationActive = false;
-    Lndmobile.cancelGossipSync();
+    NativeJobExecutor.CancellationToken token = gossipSyncToken.getAndSet(null);
+    if (token != null) {
+      token.cancel();
+    } else {
+      Lndmobile.cancelGossipSync();
+    }
+
+    // The sync itself still ends with MSG_GOSSIP_SYNC_RESULT
+    Message msg = Message.obtain(null, MSG_CANCEL_GOSSIP_SYNC_RESULT, request, 0);
+
+    Bundle bundle = new Bundle();
+    bundle.putBoolean("cancelled", token != null);
+    msg.setData(bundle);
+
+    sendToClient(recipient, msg);
   }
 }
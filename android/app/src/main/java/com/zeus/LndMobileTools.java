@@ -122,6 +122,29 @@ class LndMobileTools extends ReactContextBaseJavaModule {
     promise.resolve(result);
   }
 
+  /**
+   * The last lnd boots with their startup milestones, and per milestone
+   * p50, p90 and max across them. See LndStartupProfiler.
+   */
+  @ReactMethod
+  public void getStartupProfile(Promise promise) {
+    promise.resolve(Arguments.fromBundle(LndStartupProfiler.get(getReactApplicationContext()).snapshot()));
+  }
+
+  @ReactMethod
+  public void clearStartupProfile(Promise promise) {
+    LndStartupProfiler.get(getReactApplicationContext()).clear();
+    promise.resolve(null);
+  }
+
+  /**
+   * Runtime stats of long-running native jobs, see NativeJobExecutor.snapshot.
+   */
+  @ReactMethod
+  public void getNativeJobStats(Promise promise) {
+    promise.resolve(Arguments.fromBundle(NativeJobExecutor.get().snapshot()));
+  }
+
   private boolean killLndProcess() {
     String packageName = getReactApplicationContext().getPackageName();
     ActivityManager am = (ActivityManager) getCurrentActivity().getSystemService(Context.ACTIVITY_SERVICE);
@@ -523,6 +546,8 @@ class LndMobileTools extends ReactContextBaseJavaModule {
     String filename = getReactApplicationContext().getCacheDir().toString() + "/dgraph";
     File file = new File(filename);
     deleteRecursive(file);
+    // The graph staged by the prefetch would otherwise be served to lnd again
+    deleteRecursive(new File(getReactApplicationContext().getCacheDir(), LndMobileService.SPEEDLOADER_STAGING_DIR));
     promise.resolve(null);
   }
 
@@ -0,0 +1,281 @@
+package app.zeusln.zeus;
+
+import android.util.Base64;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import lnrpc.LightningOuterClass.Channel;
+import lnrpc.LightningOuterClass.GetInfoResponse;
+import lnrpc.LightningOuterClass.Invoice;
+import lnrpc.LightningOuterClass.ListChannelsResponse;
+import lnrpc.LightningOuterClass.ListInvoiceResponse;
+import lnrpc.LightningOuterClass.ListPaymentsResponse;
+import lnrpc.LightningOuterClass.Payment;
+import lnrpc.LightningOuterClass.PendingChannelsResponse;
+
+/**
+ * Native decode + projection of hot lnd responses.
+ *
+ * Instead of shipping the full protobuf to JS and running decode/toObject there,
+ * the response is parsed with the lite classes and only the requested fields are
+ * returned, as { fields, rows, meta } where every row is a compact array holding
+ * the values in the order of fields. Field names use the proto (snake_case) names.
+ * 64-bit integers are returned as strings, bytes as base64.
+ *
+ * The lite runtime has no reflection, so every projectable field is listed here.
+ */
+final class LndProjections {
+  private LndProjections() {}
+
+  private interface Parser {
+    Object parse(byte[] bytes) throws InvalidProtocolBufferException;
+  }
+
+  private interface RowSource {
+    List<?> rows(Object response);
+  }
+
+  private interface Field {
+    void push(WritableArray row, Object item);
+  }
+
+  private interface Meta {
+    void put(WritableMap meta, Object response);
+  }
+
+  private static final class Spec {
+    final Parser parser;
+    final RowSource rows;
+    final Meta meta;
+    final Map<String, Field> fields = new HashMap<>();
+
+    Spec(Parser parser, RowSource rows, Meta meta) {
+      this.parser = parser;
+      this.rows = rows;
+      this.meta = meta;
+    }
+
+    Spec field(String name, Field field) {
+      fields.put(name, field);
+      return this;
+    }
+  }
+
+  private static final Map<String, Spec> SPECS = new HashMap<>();
+
+  static {
+    SPECS.put("ListChannels", new Spec(
+        ListChannelsResponse::parseFrom,
+        r -> ((ListChannelsResponse) r).getChannelsList(),
+        (m, r) -> {})
+      .field("active", (row, c) -> row.pushBoolean(((Channel) c).getActive()))
+      .field("remote_pubkey", (row, c) -> row.pushString(((Channel) c).getRemotePubkey()))
+      .field("channel_point", (row, c) -> row.pushString(((Channel) c).getChannelPoint()))
+      .field("chan_id", (row, c) -> row.pushString(Long.toUnsignedString(((Channel) c).getChanId())))
+      .field("capacity", (row, c) -> row.pushString(Long.toString(((Channel) c).getCapacity())))
+      .field("local_balance", (row, c) -> row.pushString(Long.toString(((Channel) c).getLocalBalance())))
+      .field("remote_balance", (row, c) -> row.pushString(Long.toString(((Channel) c).getRemoteBalance())))
+      .field("commit_fee", (row, c) -> row.pushString(Long.toString(((Channel) c).getCommitFee())))
+      .field("unsettled_balance", (row, c) -> row.pushString(Long.toString(((Channel) c).getUnsettledBalance())))
+      .field("total_satoshis_sent", (row, c) -> row.pushString(Long.toString(((Channel) c).getTotalSatoshisSent())))
+      .field("total_satoshis_received", (row, c) -> row.pushString(Long.toString(((Channel) c).getTotalSatoshisReceived())))
+      .field("num_updates", (row, c) -> row.pushString(Long.toUnsignedString(((Channel) c).getNumUpdates())))
+      .field("num_pending_htlcs", (row, c) -> row.pushInt(((Channel) c).getPendingHtlcsCount()))
+      .field("private", (row, c) -> row.pushBoolean(((Channel) c).getPrivate()))
+      .field("initiator", (row, c) -> row.pushBoolean(((Channel) c).getInitiator()))
+      .field("chan_status_flags", (row, c) -> row.pushString(((Channel) c).getChanStatusFlags()))
+      .field("local_chan_reserve_sat", (row, c) -> row.pushString(Long.toString(((Channel) c).getLocalChanReserveSat())))
+      .field("remote_chan_reserve_sat", (row, c) -> row.pushString(Long.toString(((Channel) c).getRemoteChanReserveSat())))
+      .field("commitment_type", (row, c) -> row.pushString(((Channel) c).getCommitmentType().name()))
+      .field("lifetime", (row, c) -> row.pushString(Long.toString(((Channel) c).getLifetime())))
+      .field("uptime", (row, c) -> row.pushString(Long.toString(((Channel) c).getUptime())))
+      .field("zero_conf", (row, c) -> row.pushBoolean(((Channel) c).getZeroConf()))
+      .field("peer_alias", (row, c) -> row.pushString(((Channel) c).getPeerAlias()))
+      .field("peer_scid_alias", (row, c) -> row.pushString(Long.toUnsignedString(((Channel) c).getPeerScidAlias())))
+      .field("memo", (row, c) -> row.pushString(((Channel) c).getMemo())));
+
+    SPECS.put("ListPayments", new Spec(
+        ListPaymentsResponse::parseFrom,
+        r -> ((ListPaymentsResponse) r).getPaymentsList(),
+        (m, r) -> {
+          ListPaymentsResponse res = (ListPaymentsResponse) r;
+          m.putString("first_index_offset", Long.toUnsignedString(res.getFirstIndexOffset()));
+          m.putString("last_index_offset", Long.toUnsignedString(res.getLastIndexOffset()));
+          m.putString("total_num_payments", Long.toUnsignedString(res.getTotalNumPayments()));
+        })
+      .field("payment_hash", (row, p) -> row.pushString(((Payment) p).getPaymentHash()))
+      .field("value_sat", (row, p) -> row.pushString(Long.toString(((Payment) p).getValueSat())))
+      .field("value_msat", (row, p) -> row.pushString(Long.toString(((Payment) p).getValueMsat())))
+      .field("creation_date", (row, p) -> row.pushString(Long.toString(((Payment) p).getCreationDate())))
+      .field("creation_time_ns", (row, p) -> row.pushString(Long.toString(((Payment) p).getCreationTimeNs())))
+      .field("fee_sat", (row, p) -> row.pushString(Long.toString(((Payment) p).getFeeSat())))
+      .field("fee_msat", (row, p) -> row.pushString(Long.toString(((Payment) p).getFeeMsat())))
+      .field("payment_preimage", (row, p) -> row.pushString(((Payment) p).getPaymentPreimage()))
+      .field("payment_request", (row, p) -> row.pushString(((Payment) p).getPaymentRequest()))
+      .field("status", (row, p) -> row.pushString(((Payment) p).getStatus().name()))
+      .field("payment_index", (row, p) -> row.pushString(Long.toUnsignedString(((Payment) p).getPaymentIndex())))
+      .field("failure_reason", (row, p) -> row.pushString(((Payment) p).getFailureReason().name()))
+      .field("num_htlcs", (row, p) -> row.pushInt(((Payment) p).getHtlcsCount())));
+
+    SPECS.put("ListInvoices", new Spec(
+        ListInvoiceResponse::parseFrom,
+        r -> ((ListInvoiceResponse) r).getInvoicesList(),
+        (m, r) -> {
+          ListInvoiceResponse res = (ListInvoiceResponse) r;
+          m.putString("first_index_offset", Long.toUnsignedString(res.getFirstIndexOffset()));
+          m.putString("last_index_offset", Long.toUnsignedString(res.getLastIndexOffset()));
+        })
+      .field("memo", (row, i) -> row.pushString(((Invoice) i).getMemo()))
+      .field("r_preimage", (row, i) -> row.pushString(base64(((Invoice) i).getRPreimage())))
+      .field("r_hash", (row, i) -> row.pushString(base64(((Invoice) i).getRHash())))
+      .field("value", (row, i) -> row.pushString(Long.toString(((Invoice) i).getValue())))
+      .field("value_msat", (row, i) -> row.pushString(Long.toString(((Invoice) i).getValueMsat())))
+      .field("settled", (row, i) -> row.pushBoolean(((Invoice) i).getSettled()))
+      .field("creation_date", (row, i) -> row.pushString(Long.toString(((Invoice) i).getCreationDate())))
+      .field("settle_date", (row, i) -> row.pushString(Long.toString(((Invoice) i).getSettleDate())))
+      .field("payment_request", (row, i) -> row.pushString(((Invoice) i).getPaymentRequest()))
+      .field("expiry", (row, i) -> row.pushString(Long.toString(((Invoice) i).getExpiry())))
+      .field("private", (row, i) -> row.pushBoolean(((Invoice) i).getPrivate()))
+      .field("add_index", (row, i) -> row.pushString(Long.toUnsignedString(((Invoice) i).getAddIndex())))
+      .field("settle_index", (row, i) -> row.pushString(Long.toUnsignedString(((Invoice) i).getSettleIndex())))
+      .field("amt_paid_sat", (row, i) -> row.pushString(Long.toString(((Invoice) i).getAmtPaidSat())))
+      .field("amt_paid_msat", (row, i) -> row.pushString(Long.toString(((Invoice) i).getAmtPaidMsat())))
+      .field("state", (row, i) -> row.pushString(((Invoice) i).getState().name()))
+      .field("is_keysend", (row, i) -> row.pushBoolean(((Invoice) i).getIsKeysend()))
+      .field("is_amp", (row, i) -> row.pushBoolean(((Invoice) i).getIsAmp())));
+
+    SPECS.put("GetInfo", new Spec(
+        GetInfoResponse::parseFrom,
+        r -> Collections.singletonList(r),
+        (m, r) -> {})
+      .field("version", (row, g) -> row.pushString(((GetInfoResponse) g).getVersion()))
+      .field("commit_hash", (row, g) -> row.pushString(((GetInfoResponse) g).getCommitHash()))
+      .field("identity_pubkey", (row, g) -> row.pushString(((GetInfoResponse) g).getIdentityPubkey()))
+      .field("alias", (row, g) -> row.pushString(((GetInfoResponse) g).getAlias()))
+      .field("color", (row, g) -> row.pushString(((GetInfoResponse) g).getColor()))
+      .field("num_pending_channels", (row, g) -> row.pushInt(((GetInfoResponse) g).getNumPendingChannels()))
+      .field("num_active_channels", (row, g) -> row.pushInt(((GetInfoResponse) g).getNumActiveChannels()))
+      .field("num_inactive_channels", (row, g) -> row.pushInt(((GetInfoResponse) g).getNumInactiveChannels()))
+      .field("num_peers", (row, g) -> row.pushInt(((GetInfoResponse) g).getNumPeers()))
+      .field("block_height", (row, g) -> row.pushInt(((GetInfoResponse) g).getBlockHeight()))
+      .field("block_hash", (row, g) -> row.pushString(((GetInfoResponse) g).getBlockHash()))
+      .field("best_header_timestamp", (row, g) -> row.pushString(Long.toString(((GetInfoResponse) g).getBestHeaderTimestamp())))
+      .field("synced_to_chain", (row, g) -> row.pushBoolean(((GetInfoResponse) g).getSyncedToChain()))
+      .field("synced_to_graph", (row, g) -> row.pushBoolean(((GetInfoResponse) g).getSyncedToGraph())));
+
+    // One row per pending channel across all pending states, tagged with "kind"
+    SPECS.put("PendingChannels", new Spec(
+        PendingChannelsResponse::parseFrom,
+        r -> pendingChannelRows((PendingChannelsResponse) r),
+        (m, r) -> m.putString("total_limbo_balance", Long.toString(((PendingChannelsResponse) r).getTotalLimboBalance())))
+      .field("kind", (row, p) -> row.pushString(((PendingRow) p).kind))
+      .field("channel.remote_node_pub", (row, p) -> row.pushString(((PendingRow) p).channel.getRemoteNodePub()))
+      .field("channel.channel_point", (row, p) -> row.pushString(((PendingRow) p).channel.getChannelPoint()))
+      .field("channel.capacity", (row, p) -> row.pushString(Long.toString(((PendingRow) p).channel.getCapacity())))
+      .field("channel.local_balance", (row, p) -> row.pushString(Long.toString(((PendingRow) p).channel.getLocalBalance())))
+      .field("channel.remote_balance", (row, p) -> row.pushString(Long.toString(((PendingRow) p).channel.getRemoteBalance())))
+      .field("channel.private", (row, p) -> row.pushBoolean(((PendingRow) p).channel.getPrivate()))
+      .field("channel.memo", (row, p) -> row.pushString(((PendingRow) p).channel.getMemo()))
+      .field("closing_txid", (row, p) -> row.pushString(((PendingRow) p).closingTxid))
+      .field("limbo_balance", (row, p) -> row.pushString(Long.toString(((PendingRow) p).limboBalance)))
+      .field("blocks_til_maturity", (row, p) -> row.pushInt(((PendingRow) p).blocksTilMaturity))
+      .field("confirmations_until_active", (row, p) -> row.pushInt(((PendingRow) p).confirmationsUntilActive)));
+  }
+
+  private static final class PendingRow {
+    final String kind;
+    final PendingChannelsResponse.PendingChannel channel;
+    String closingTxid = "";
+    long limboBalance = 0;
+    int blocksTilMaturity = 0;
+    int confirmationsUntilActive = 0;
+
+    PendingRow(String kind, PendingChannelsResponse.PendingChannel channel) {
+      this.kind = kind;
+      this.channel = channel;
+    }
+  }
+
+  private static List<PendingRow> pendingChannelRows(PendingChannelsResponse response) {
+    List<PendingRow> rows = new java.util.ArrayList<>();
+    for (PendingChannelsResponse.PendingOpenChannel c : response.getPendingOpenChannelsList()) {
+      PendingRow row = new PendingRow("pending_open", c.getChannel());
+      row.confirmationsUntilActive = c.getConfirmationsUntilActive();
+      rows.add(row);
+    }
+    for (PendingChannelsResponse.ForceClosedChannel c : response.getPendingForceClosingChannelsList()) {
+      PendingRow row = new PendingRow("pending_force_closing", c.getChannel());
+      row.closingTxid = c.getClosingTxid();
+      row.limboBalance = c.getLimboBalance();
+      row.blocksTilMaturity = c.getBlocksTilMaturity();
+      rows.add(row);
+    }
+    for (PendingChannelsResponse.WaitingCloseChannel c : response.getWaitingCloseChannelsList()) {
+      PendingRow row = new PendingRow("waiting_close", c.getChannel());
+      row.closingTxid = c.getClosingTxid();
+      row.limboBalance = c.getLimboBalance();
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static String base64(ByteString bytes) {
+    return Base64.encodeToString(bytes.toByteArray(), Base64.NO_WRAP);
+  }
+
+  static boolean supports(String method) {
+    return SPECS.containsKey(method);
+  }
+
+  /**
+   * Returns the first field that can't be projected for the method, or null if all can.
+   */
+  static String findUnknownField(String method, List<String> fields) {
+    Spec spec = SPECS.get(method);
+    for (String field : fields) {
+      if (spec == null || !spec.fields.containsKey(field)) {
+        return field;
+      }
+    }
+    return null;
+  }
+
+  static WritableMap project(String method, byte[] bytes, List<String> fieldNames) throws InvalidProtocolBufferException {
+    Spec spec = SPECS.get(method);
+    Object response = spec.parser.parse(bytes != null ? bytes : new byte[0]);
+
+    Field[] fields = new Field[fieldNames.size()];
+    WritableArray names = Arguments.createArray();
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = spec.fields.get(fieldNames.get(i));
+      names.pushString(fieldNames.get(i));
+    }
+
+    WritableArray rows = Arguments.createArray();
+    for (Object item : spec.rows.rows(response)) {
+      WritableArray row = Arguments.createArray();
+      for (Field field : fields) {
+        field.push(row, item);
+      }
+      rows.pushArray(row);
+    }
+
+    WritableMap meta = Arguments.createMap();
+    spec.meta.put(meta, response);
+
+    WritableMap result = Arguments.createMap();
+    result.putArray("fields", names);
+    result.putArray("rows", rows);
+    result.putMap("meta", meta);
+    return result;
+  }
+}
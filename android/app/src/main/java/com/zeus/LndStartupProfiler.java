@@ -0,0 +1,198 @@
+package app.zeusln.zeus;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Milestones of embedded lnd boots, to tell which phase a slow unlock spends
+ * its time in:
+ *
+ * bindRequested      LndMobile.initialize binding LndMobileService
+ * serviceConnected   onServiceConnected
+ * registerClientAck  MSG_REGISTER_CLIENT_ACK
+ * startLndRequested  LndMobile.startLnd
+ * startLndResult     MSG_START_LND_RESULT, or startLndError
+ * state:<WalletState> each SubscribeState transition
+ * firstGetInfo       the first successful GetInfo
+ *
+ * Milestones are milliseconds of SystemClock.uptimeMillis() since the boot
+ * began: process start for the first boot in a process, the startLnd request
+ * for later ones (restarts, wallet switches). Each milestone is kept once per
+ * boot. The last MAX_BOOTS boots are persisted with app version and device,
+ * so boots can be compared across releases and devices.
+ */
+final class LndStartupProfiler {
+  private static final String TAG = "LndStartupProfiler";
+  static final int MAX_BOOTS = 20;
+
+  static final String BIND_REQUESTED = "bindRequested";
+  static final String SERVICE_CONNECTED = "serviceConnected";
+  static final String REGISTER_CLIENT_ACK = "registerClientAck";
+  static final String START_LND_REQUESTED = "startLndRequested";
+  static final String START_LND_RESULT = "startLndResult";
+  static final String START_LND_ERROR = "startLndError";
+  static final String FIRST_GET_INFO = "firstGetInfo";
+
+  private static final String PREFS_NAME = "lnd_startup_profile";
+  private static final String KEY_BOOTS = "boots";
+
+  private static LndStartupProfiler instance;
+
+  private final SharedPreferences prefs;
+  private final List<JSONObject> boots = new ArrayList<>();
+  private JSONObject boot;
+  private long bootOrigin;
+
+  static synchronized LndStartupProfiler get(Context context) {
+    if (instance == null) {
+      instance = new LndStartupProfiler(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private LndStartupProfiler(Context context) {
+    prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    try {
+      JSONArray stored = new JSONArray(prefs.getString(KEY_BOOTS, "[]"));
+      for (int i = 0; i < stored.length(); i++) {
+        boots.add(stored.getJSONObject(i));
+      }
+    } catch (JSONException e) {
+      Log.w(TAG, "Discarding unreadable startup profile", e);
+    }
+  }
+
+  synchronized void mark(String milestone) {
+    if (boot == null) {
+      begin("process", Process.getStartUptimeMillis());
+    } else if (START_LND_REQUESTED.equals(milestone) && finished()) {
+      // lnd is being started again in this process
+      begin("restart", SystemClock.uptimeMillis());
+    }
+
+    try {
+      JSONObject milestones = boot.getJSONObject("milestones");
+      if (!milestones.has(milestone)) {
+        milestones.put(milestone, SystemClock.uptimeMillis() - bootOrigin);
+        persist();
+      }
+    } catch (JSONException e) {
+      Log.w(TAG, "Could not record " + milestone, e);
+    }
+  }
+
+  void markWalletState(String state) {
+    mark("state:" + state);
+  }
+
+  /**
+   * The stored boots, oldest first, and per milestone its count, p50, p90 and
+   * max across them, in milliseconds.
+   */
+  synchronized Bundle snapshot() {
+    Map<String, List<Long>> values = new LinkedHashMap<>();
+    ArrayList<Bundle> bootBundles = new ArrayList<>();
+    for (JSONObject stored : boots) {
+      Bundle bundle = new Bundle();
+      bundle.putString("origin", stored.optString("origin"));
+      bundle.putDouble("startedAt", stored.optLong("startedAt"));
+      bundle.putString("appVersion", stored.optString("appVersion"));
+      bundle.putString("device", stored.optString("device"));
+      bundle.putInt("sdk", stored.optInt("sdk"));
+      Bundle milestones = new Bundle();
+      JSONObject storedMilestones = stored.optJSONObject("milestones");
+      if (storedMilestones != null) {
+        Iterator<String> names = storedMilestones.keys();
+        while (names.hasNext()) {
+          String name = names.next();
+          long value = storedMilestones.optLong(name);
+          milestones.putDouble(name, value);
+          List<Long> list = values.get(name);
+          if (list == null) {
+            list = new ArrayList<>();
+            values.put(name, list);
+          }
+          list.add(value);
+        }
+      }
+      bundle.putBundle("milestones", milestones);
+      bootBundles.add(bundle);
+    }
+
+    Bundle percentiles = new Bundle();
+    for (Map.Entry<String, List<Long>> entry : values.entrySet()) {
+      long[] sorted = new long[entry.getValue().size()];
+      for (int i = 0; i < sorted.length; i++) {
+        sorted[i] = entry.getValue().get(i);
+      }
+      Arrays.sort(sorted);
+      Bundle bundle = new Bundle();
+      bundle.putDouble("count", sorted.length);
+      bundle.putDouble("p50", percentile(sorted, 50));
+      bundle.putDouble("p90", percentile(sorted, 90));
+      bundle.putDouble("max", sorted[sorted.length - 1]);
+      percentiles.putBundle(entry.getKey(), bundle);
+    }
+
+    Bundle snapshot = new Bundle();
+    snapshot.putParcelableArrayList("boots", bootBundles);
+    snapshot.putBundle("percentiles", percentiles);
+    return snapshot;
+  }
+
+  synchronized void clear() {
+    // A boot in progress keeps recording, but is no longer stored
+    boots.clear();
+    prefs.edit().remove(KEY_BOOTS).apply();
+  }
+
+  private void begin(String origin, long originUptime) {
+    boot = new JSONObject();
+    bootOrigin = originUptime;
+    try {
+      boot.put("origin", origin);
+      boot.put("startedAt", System.currentTimeMillis() - (SystemClock.uptimeMillis() - originUptime));
+      boot.put("appVersion", BuildConfig.VERSION_NAME + " (" + BuildConfig.VERSION_CODE + ")");
+      boot.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+      boot.put("sdk", Build.VERSION.SDK_INT);
+      boot.put("milestones", new JSONObject());
+    } catch (JSONException e) {
+      // Only thrown for non-finite numbers
+    }
+    boots.add(boot);
+    while (boots.size() > MAX_BOOTS) {
+      boots.remove(0);
+    }
+  }
+
+  private boolean finished() {
+    JSONObject milestones = boot.optJSONObject("milestones");
+    return milestones != null && (milestones.has(START_LND_RESULT) || milestones.has(START_LND_ERROR));
+  }
+
+  private void persist() {
+    prefs.edit().putString(KEY_BOOTS, new JSONArray(boots).toString()).apply();
+  }
+
+  // Nearest rank
+  private static long percentile(long[] sorted, double percentile) {
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+    return sorted[Math.max(0, rank - 1)];
+  }
+}
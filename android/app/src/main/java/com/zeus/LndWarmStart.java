@@ -0,0 +1,227 @@
+package app.zeusln.zeus;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import lndmobile.Lndmobile;
+
+/**
+ * Starts of lnd in this process, and the opt-in warm start.
+ *
+ * lnd can only be started once per process, so every start goes through
+ * start(), which hands out a readiness future per set of arguments. A start
+ * with the same arguments as one under way or done attaches to it instead of
+ * calling Lndmobile.start again. A start with other arguments fails while lnd
+ * runs, unless the running lnd is a warm start, which is stopped first.
+ *
+ * Warm start is enabled for one embedded wallet, by its lnd dir. On launch,
+ * MainApplication.onCreate starts lnd with the arguments of that wallet's
+ * last successful start, in parallel with React Native booting. By the time
+ * JS calls startLnd, lnd is booting or up and the call just waits for the
+ * same future. Wallet unlock still comes from JS.
+ *
+ * A warm start that JS never attached to means the user opened another
+ * wallet, possibly a remote node. Warm start then pauses until JS starts the
+ * enabled wallet again.
+ */
+final class LndWarmStart {
+  private static final String TAG = "LndWarmStart";
+  static final String ACTION = "app.zeusln.zeus.android.intent.action.WARM_START";
+
+  private static final String PREFS_NAME = "lnd_warm_start";
+  private static final String KEY_LND_DIR = "lndDir";
+  private static final String KEY_ARGS = "args";
+  private static final String KEY_UNCLAIMED = "unclaimed";
+
+  private static SettableFuture<byte[]> readiness;
+  private static String readinessArgs;
+  // Whether readiness is a warm start JS hasn't attached to yet
+  private static boolean readinessWarm;
+
+  private LndWarmStart() {}
+
+  /**
+   * The lnd dir warm start is enabled for, or null.
+   */
+  static String getLndDir(Context context) {
+    return prefs(context).getString(KEY_LND_DIR, null);
+  }
+
+  /**
+   * Enables warm start for the wallet in lndDir (an absolute --lnddir), or
+   * disables it with null.
+   */
+  static void setLndDir(Context context, String lndDir) {
+    SharedPreferences.Editor editor = prefs(context).edit();
+    if (lndDir == null) {
+      editor.remove(KEY_LND_DIR);
+    } else if (!lndDir.equals(getLndDir(context))) {
+      editor.putString(KEY_LND_DIR, lndDir).remove(KEY_ARGS).remove(KEY_UNCLAIMED);
+    }
+    editor.apply();
+  }
+
+  /**
+   * Remembers the arguments of a successful start of the enabled wallet for
+   * the next warm start.
+   */
+  static void rememberArgs(Context context, String args) {
+    SharedPreferences prefs = prefs(context);
+    String lndDir = prefs.getString(KEY_LND_DIR, null);
+    if (lndDir != null && lndDir.equals(lndDirOf(args))) {
+      prefs.edit().putString(KEY_ARGS, args).remove(KEY_UNCLAIMED).apply();
+    }
+  }
+
+  /**
+   * Called from MainApplication.onCreate. Starts LndMobileService, which starts
+   * lnd, if warm start is enabled and its wallet has been started before.
+   */
+  static void startIfEnabled(Context context) {
+    SharedPreferences prefs = prefs(context);
+    String lndDir = prefs.getString(KEY_LND_DIR, null);
+    String args = prefs.getString(KEY_ARGS, null);
+    if (lndDir == null || args == null || !lndDir.equals(lndDirOf(args))) {
+      return;
+    }
+    if (prefs.getBoolean(KEY_UNCLAIMED, false)) {
+      Log.i(TAG, "Last warm start wasn't used, waiting for JS to start " + lndDir + " again");
+      return;
+    }
+    Intent intent = new Intent(context, LndMobileService.class);
+    intent.setAction(ACTION);
+    intent.putExtra("args", args);
+    try {
+      context.startService(intent);
+      // Cleared when JS attaches, see claim()
+      prefs.edit().putBoolean(KEY_UNCLAIMED, true).apply();
+    } catch (IllegalStateException e) {
+      // The process was started in the background, e.g. for scheduled sync
+      Log.i(TAG, "Not warm starting lnd in the background");
+    }
+  }
+
+  /**
+   * Starts lnd with args on executor, unless a start with the same args is
+   * already under way or has succeeded. Returns the future of that start.
+   * beforeLaunch runs on executor right before lnd is actually started, and
+   * not at all if this call attaches to another start or fails.
+   *
+   * While lnd runs or boots with other args, a JS start stops a warm start
+   * first and fails otherwise; stopLnd has to come first.
+   */
+  static synchronized ListenableFuture<byte[]> start(Context context, final String args, final boolean warm, final Executor executor, final Runnable beforeLaunch) {
+    if (readiness != null && args.equals(readinessArgs)) {
+      if (!warm && readinessWarm) {
+        readinessWarm = false;
+        prefs(context).edit().remove(KEY_UNCLAIMED).apply();
+      }
+      return readiness;
+    }
+    if (readiness != null && (warm || !readinessWarm)) {
+      return Futures.immediateFailedFuture(new IllegalStateException(
+        "lnd is already running with other arguments, stop it first"));
+    }
+
+    final SettableFuture<byte[]> previous = readiness;
+    final SettableFuture<byte[]> future = SettableFuture.create();
+    readiness = future;
+    readinessArgs = args;
+    readinessWarm = warm;
+    if (previous == null) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          launch(args, future, beforeLaunch);
+        }
+      });
+    } else {
+      Log.i(TAG, "Stopping the warm started lnd for another wallet");
+      previous.addListener(new Runnable() {
+        @Override
+        public void run() {
+          stopThenLaunch(previous, args, future, beforeLaunch);
+        }
+      }, executor);
+    }
+    return future;
+  }
+
+  /**
+   * Called once lnd has stopped, so that the next start starts it again.
+   */
+  static synchronized void onStopped() {
+    readiness = null;
+    readinessArgs = null;
+    readinessWarm = false;
+  }
+
+  private static void launch(String args, final SettableFuture<byte[]> future, Runnable beforeLaunch) {
+    beforeLaunch.run();
+    Lndmobile.start(args, new lndmobile.Callback() {
+      @Override
+      public void onError(Exception e) {
+        // Let the next start try again
+        forget(future);
+        future.setException(e);
+      }
+
+      @Override
+      public void onResponse(byte[] bytes) {
+        future.set(bytes);
+      }
+    });
+  }
+
+  // A warm start that failed left nothing to stop
+  private static void stopThenLaunch(ListenableFuture<byte[]> previous, final String args, final SettableFuture<byte[]> future, final Runnable beforeLaunch) {
+    try {
+      Futures.getDone(previous);
+    } catch (Exception e) {
+      launch(args, future, beforeLaunch);
+      return;
+    }
+    Lndmobile.stopDaemon(
+      lnrpc.LightningOuterClass.StopRequest.newBuilder().build().toByteArray(),
+      new lndmobile.Callback() {
+        @Override
+        public void onError(Exception e) {
+          forget(future);
+          future.setException(e);
+        }
+
+        @Override
+        public void onResponse(byte[] bytes) {
+          launch(args, future, beforeLaunch);
+        }
+      }
+    );
+  }
+
+  private static synchronized void forget(SettableFuture<byte[]> future) {
+    if (readiness == future) {
+      onStopped();
+    }
+  }
+
+  private static String lndDirOf(String args) {
+    for (String arg : args.trim().split("\\s+")) {
+      if (arg.startsWith("--lnddir=")) {
+        return arg.substring("--lnddir=".length());
+      }
+    }
+    return null;
+  }
+
+  private static SharedPreferences prefs(Context context) {
+    return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+  }
+}
@@ -39,6 +39,8 @@ class MainApplication : Application(), ReactApplication {
 
     override fun onCreate() {
         super.onCreate()
+        // Boots lnd alongside React Native if the user opted in
+        LndWarmStart.startIfEnabled(this)
         loadReactNative(this)
         ReactNativeBlobUtilUtils.sharedTrustManager = object : X509TrustManager {
             override fun checkClientTrusted(chain: Array<X509Certificate>, authType: String) {}
@@ -0,0 +1,330 @@
+package app.zeusln.zeus;
+
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Runs blocking native jobs (gossip sync, RGS updates, LDK node builds and
+ * stops) with names, priorities, cancellation and stats.
+ *
+ * Jobs that finish in bounded time share a small pool. Jobs that can block
+ * for long or indefinitely (waiting on lnd or VSS, holding a node reference
+ * while it tears down) go through submitDedicated and a pool of their own, so
+ * they never tie up the first pool and leave other jobs queued behind them,
+ * such as a node stop that a wallet deletion waits on. That pool is capped at
+ * LONG_RUNNING_THREADS with a short queue. A job it can't take is rejected:
+ * its future fails with a RejectedExecutionException, it is logged and counted
+ * under rejections, and callers can react with whenRejected.
+ *
+ * Jobs run at the Process thread priority they're submitted with, so that
+ * background work like gossip sync doesn't compete with the UI thread, and
+ * queued jobs are taken in priority order. While a job runs its thread is
+ * named after it, which is what shows up in traces and ANR dumps.
+ *
+ * A job can be cancelled through its CancellationToken: one that hasn't
+ * started yet is skipped, one that has gets the callbacks it registered with
+ * onCancel run (to cancel the native call) and is expected to return early.
+ *
+ * Per job name it counts runs, failures, cancellations and rejections and
+ * keeps run and queue wait times, see snapshot().
+ */
+final class NativeJobExecutor {
+  private static final String TAG = "NativeJobExecutor";
+  private static final NativeJobExecutor INSTANCE = new NativeJobExecutor();
+
+  static final int PRIORITY_DEFAULT = Process.THREAD_PRIORITY_DEFAULT;
+  static final int PRIORITY_BACKGROUND = Process.THREAD_PRIORITY_BACKGROUND;
+
+  private static final int THREADS = 4;
+  private static final int LONG_RUNNING_THREADS = 4;
+  private static final int LONG_RUNNING_QUEUE = 8;
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  interface Job {
+    void run(CancellationToken token) throws Exception;
+  }
+
+  static final class CancellationToken {
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private boolean cancelled;
+
+    synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Runs callback on cancellation, or right away if already cancelled.
+     */
+    void onCancel(Runnable callback) {
+      synchronized (this) {
+        if (!cancelled) {
+          callbacks.add(callback);
+          return;
+        }
+      }
+      callback.run();
+    }
+
+    void cancel() {
+      List<Runnable> run;
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+        cancelled = true;
+        run = new ArrayList<>(callbacks);
+        callbacks.clear();
+      }
+      for (Runnable callback : run) {
+        try {
+          callback.run();
+        } catch (RuntimeException e) {
+          Log.w(TAG, "Cancellation callback failed", e);
+        }
+      }
+    }
+  }
+
+  private static final class JobStats {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicLong runs = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong cancellations = new AtomicLong();
+    final AtomicLong rejections = new AtomicLong();
+    final AtomicLong lastRunMs = new AtomicLong();
+    final LatencyHistogram runTime = new LatencyHistogram();
+    final LatencyHistogram queueWait = new LatencyHistogram();
+  }
+
+  private final class Task implements Runnable, Comparable<Task> {
+    final String name;
+    final int priority;
+    final long sequence;
+    final long queuedAt = SystemClock.elapsedRealtimeNanos();
+    final CancellationToken token;
+    final Job job;
+    final SettableFuture<Void> future = SettableFuture.create();
+
+    Task(String name, int priority, long sequence, CancellationToken token, Job job) {
+      this.name = name;
+      this.priority = priority;
+      this.sequence = sequence;
+      this.token = token;
+      this.job = job;
+    }
+
+    // Lower Process priority values are more urgent
+    @Override
+    public int compareTo(Task other) {
+      if (priority != other.priority) {
+        return Integer.compare(priority, other.priority);
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+
+    @Override
+    public void run() {
+      JobStats stats = stats(name);
+      long started = SystemClock.elapsedRealtimeNanos();
+      stats.queueWait.recordNanos(started - queuedAt);
+      if (token.isCancelled()) {
+        stats.cancellations.incrementAndGet();
+        future.setException(new CancellationException(name + " cancelled before it started"));
+        return;
+      }
+
+      Thread thread = Thread.currentThread();
+      String threadName = thread.getName();
+      thread.setName("NativeJob-" + name);
+      Process.setThreadPriority(priority);
+      stats.running.incrementAndGet();
+      try {
+        job.run(token);
+        stats.runs.incrementAndGet();
+        if (token.isCancelled()) {
+          stats.cancellations.incrementAndGet();
+        }
+        future.set(null);
+      } catch (Throwable t) {
+        stats.runs.incrementAndGet();
+        stats.failures.incrementAndGet();
+        Log.e(TAG, "Job " + name + " failed", t);
+        future.setException(t);
+      } finally {
+        long runNanos = SystemClock.elapsedRealtimeNanos() - started;
+        stats.runTime.recordNanos(runNanos);
+        stats.lastRunMs.set(runNanos / 1000000L);
+        stats.running.decrementAndGet();
+        Process.setThreadPriority(PRIORITY_DEFAULT);
+        thread.setName(threadName);
+      }
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final ThreadPoolExecutor longRunning;
+  private final AtomicLong sequence = new AtomicLong();
+  private final ConcurrentHashMap<String, JobStats> jobs = new ConcurrentHashMap<>();
+
+  static NativeJobExecutor get() {
+    return INSTANCE;
+  }
+
+  private NativeJobExecutor() {
+    final AtomicInteger count = new AtomicInteger();
+    executor = new ThreadPoolExecutor(
+      THREADS,
+      THREADS,
+      KEEP_ALIVE_SECONDS,
+      TimeUnit.SECONDS,
+      new PriorityBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          return new Thread(runnable, "NativeJob-" + count.incrementAndGet());
+        }
+      }
+    );
+    executor.allowCoreThreadTimeOut(true);
+
+    final AtomicInteger longRunningCount = new AtomicInteger();
+    longRunning = new ThreadPoolExecutor(
+      LONG_RUNNING_THREADS,
+      LONG_RUNNING_THREADS,
+      KEEP_ALIVE_SECONDS,
+      TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(LONG_RUNNING_QUEUE),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          return new Thread(runnable, "NativeJobLong-" + longRunningCount.incrementAndGet());
+        }
+      },
+      new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor pool) {
+          Task task = (Task) runnable;
+          stats(task.name).rejections.incrementAndGet();
+          String message = "Job " + task.name + " rejected, " + pool.getActiveCount()
+            + " long-running jobs running and " + pool.getQueue().size() + " queued";
+          Log.e(TAG, message);
+          task.future.setException(new RejectedExecutionException(message));
+        }
+      }
+    );
+    longRunning.allowCoreThreadTimeOut(true);
+  }
+
+  ListenableFuture<Void> submit(String name, int priority, Job job) {
+    return submit(name, priority, new CancellationToken(), job);
+  }
+
+  /**
+   * Queues job under name. The future completes when the job returns, fails
+   * with its exception, or with a CancellationException if token was
+   * cancelled before the job started.
+   */
+  ListenableFuture<Void> submit(String name, int priority, CancellationToken token, Job job) {
+    Task task = new Task(name, priority, sequence.incrementAndGet(), token, job);
+    executor.execute(task);
+    return task.future;
+  }
+
+  ListenableFuture<Void> submitDedicated(String name, int priority, Job job) {
+    return submitDedicated(name, priority, new CancellationToken(), job);
+  }
+
+  /**
+   * Like submit, but for jobs that can block for long, on the long-running
+   * pool. Jobs there start in submission order; past the pool's cap and queue
+   * the future fails with a RejectedExecutionException. Counted in snapshot()
+   * like pooled jobs.
+   */
+  ListenableFuture<Void> submitDedicated(String name, int priority, CancellationToken token, Job job) {
+    Task task = new Task(name, priority, sequence.incrementAndGet(), token, job);
+    longRunning.execute(task);
+    return task.future;
+  }
+
+  /**
+   * Runs onRejected if job was rejected by the long-running pool and so never
+   * ran, for callers that would otherwise wait for it.
+   */
+  static void whenRejected(ListenableFuture<Void> job, final Runnable onRejected) {
+    Futures.addCallback(job, new FutureCallback<Void>() {
+      @Override
+      public void onSuccess(Void result) {}
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (t instanceof RejectedExecutionException) {
+          onRejected.run();
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * The number of queued jobs, the number of running and queued long-running
+   * jobs, and under jobs per job name: running, runs, failures, cancellations,
+   * rejections, lastRunMs, and the runTime and queueWait histograms (see
+   * LatencyHistogram.toBundle).
+   */
+  Bundle snapshot() {
+    Bundle byName = new Bundle();
+    for (Map.Entry<String, JobStats> entry : jobs.entrySet()) {
+      JobStats stats = entry.getValue();
+      Bundle bundle = new Bundle();
+      bundle.putDouble("running", stats.running.get());
+      bundle.putDouble("runs", stats.runs.get());
+      bundle.putDouble("failures", stats.failures.get());
+      bundle.putDouble("cancellations", stats.cancellations.get());
+      bundle.putDouble("rejections", stats.rejections.get());
+      bundle.putDouble("lastRunMs", stats.lastRunMs.get());
+      bundle.putBundle("runTime", stats.runTime.toBundle());
+      bundle.putBundle("queueWait", stats.queueWait.toBundle());
+      byName.putBundle(entry.getKey(), bundle);
+    }
+    Bundle snapshot = new Bundle();
+    snapshot.putDouble("queued", executor.getQueue().size());
+    snapshot.putDouble("longRunning", longRunning.getActiveCount());
+    snapshot.putDouble("longRunningQueued", longRunning.getQueue().size());
+    snapshot.putBundle("jobs", byName);
+    return snapshot;
+  }
+
+  private JobStats stats(String name) {
+    JobStats stats = jobs.get(name);
+    if (stats == null) {
+      stats = new JobStats();
+      JobStats existing = jobs.putIfAbsent(name, stats);
+      if (existing != null) {
+        stats = existing;
+      }
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,239 @@
+package app.zeusln.zeus;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.facebook.react.bridge.Promise;
+
+/**
+ * In-flight request table for LndMobile.
+ *
+ * Request IDs are allocated from a monotonic counter (skipping 0 and -1,
+ * which LndMobileScheduledSyncWorker and LndMobileService use as "no request")
+ * and every entry may carry a deadline. Deadlines are enforced by a single
+ * hashed timer wheel that only ticks while there is something armed on it.
+ */
+class PendingRequests {
+  private static final String TAG = "PendingRequests";
+
+  static final String ERROR_TIMEOUT = "ETIMEDOUT";
+  static final String ERROR_CANCELLED = "ECANCELED";
+
+  static final long TICK_MS = 250;
+  private static final int WHEEL_SIZE = 512; // ~128s per revolution
+
+  private static final class Entry {
+    final int id;
+    final String method;
+    final Promise promise;
+    final long deadline; // ElapsedClock.elapsedRealtime() based, 0 = none
+    final long registeredAt;
+
+    Entry(int id, String method, Promise promise, long deadline, long registeredAt) {
+      this.id = id;
+      this.method = method;
+      this.promise = promise;
+      this.deadline = deadline;
+      this.registeredAt = registeredAt;
+    }
+  }
+
+  private final ElapsedClock clock;
+  private final AtomicInteger nextId = new AtomicInteger(0);
+  private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+  private final Object wheelLock = new Object();
+  @SuppressWarnings("unchecked")
+  private final Set<Integer>[] wheel = new HashSet[WHEEL_SIZE];
+  private int armed = 0;
+  private long lastTick = -1;
+  private HandlerThread timerThread;
+  private Handler timerHandler;
+
+  private final AtomicLong timedOut = new AtomicLong();
+  private final AtomicLong cancelled = new AtomicLong();
+
+  private final Runnable tick = new Runnable() {
+    @Override
+    public void run() {
+      onTick();
+    }
+  };
+
+  PendingRequests() {
+    this(ElapsedClock.SYSTEM);
+  }
+
+  PendingRequests(ElapsedClock clock) {
+    this.clock = clock;
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel[i] = new HashSet<>();
+    }
+  }
+
+  /**
+   * Allocates a request ID without registering a promise for it,
+   * for messages where nobody waits on the reply.
+   */
+  int allocate() {
+    while (true) {
+      int id = nextId.incrementAndGet();
+      if (id == 0 || id == -1 || entries.containsKey(id)) {
+        continue;
+      }
+      return id;
+    }
+  }
+
+  /**
+   * Registers a promise under a freshly allocated ID.
+   * A timeoutMs of 0 or less means the request never expires.
+   */
+  int register(String method, Promise promise, long timeoutMs) {
+    int id = allocate();
+    register(id, method, promise, timeoutMs);
+    return id;
+  }
+
+  /**
+   * Registers a promise under an ID previously handed out by {@link #allocate()}.
+   * Returns false if the ID is already in use.
+   */
+  boolean register(int id, String method, Promise promise, long timeoutMs) {
+    long deadline = timeoutMs > 0 ? clock.elapsedRealtime() + timeoutMs : 0;
+    Entry entry = new Entry(id, method, promise, deadline, clock.elapsedRealtimeNanos());
+    if (entries.putIfAbsent(id, entry) != null) {
+      return false;
+    }
+    if (deadline > 0) {
+      arm(entry);
+    }
+    return true;
+  }
+
+  /**
+   * Removes and returns the promise for a reply, or null if the request
+   * already completed, timed out or was cancelled.
+   */
+  Promise take(int id) {
+    Entry entry = entries.remove(id);
+    return entry != null ? entry.promise : null;
+  }
+
+  /**
+   * Nanoseconds since the request was registered, or -1 if it isn't pending.
+   */
+  long elapsedNanos(int id) {
+    Entry entry = entries.get(id);
+    return entry != null ? clock.elapsedRealtimeNanos() - entry.registeredAt : -1;
+  }
+
+  boolean cancel(int id) {
+    Entry entry = entries.remove(id);
+    if (entry == null) {
+      return false;
+    }
+    cancelled.incrementAndGet();
+    entry.promise.reject(ERROR_CANCELLED, entry.method + " request " + id + " was cancelled");
+    return true;
+  }
+
+  /**
+   * Rejects everything that is still waiting, e.g. when the service goes away.
+   */
+  void rejectAll(String code, String message) {
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      it.remove();
+      entry.promise.reject(code, message);
+    }
+  }
+
+  int getPendingCount() {
+    return entries.size();
+  }
+
+  long getTimedOutCount() {
+    return timedOut.get();
+  }
+
+  long getCancelledCount() {
+    return cancelled.get();
+  }
+
+  private void arm(Entry entry) {
+    synchronized (wheelLock) {
+      // Never drop an entry into a slot that has already been swept
+      long slot = Math.max(entry.deadline / TICK_MS, clock.elapsedRealtime() / TICK_MS + 1);
+      wheel[(int) (slot % WHEEL_SIZE)].add(entry.id);
+      if (armed++ == 0) {
+        lastTick = clock.elapsedRealtime() / TICK_MS;
+        scheduleTick(TICK_MS);
+      }
+    }
+  }
+
+  /**
+   * Runs onTick after delayMs on the timer thread. Called under wheelLock.
+   */
+  void scheduleTick(long delayMs) {
+    if (timerThread == null) {
+      timerThread = new HandlerThread("LndMobileRequestTimer");
+      timerThread.start();
+      timerHandler = new Handler(timerThread.getLooper());
+    }
+    timerHandler.postDelayed(tick, delayMs);
+  }
+
+  void onTick() {
+    List<Entry> expired = new ArrayList<>();
+    long now = clock.elapsedRealtime();
+
+    synchronized (wheelLock) {
+      long currentTick = now / TICK_MS;
+      // Catch up on any ticks we were late for, but never sweep the wheel more than once
+      long from = Math.max(lastTick + 1, currentTick - WHEEL_SIZE + 1);
+      for (long t = from; t <= currentTick; t++) {
+        Iterator<Integer> it = wheel[(int) (t % WHEEL_SIZE)].iterator();
+        while (it.hasNext()) {
+          Entry entry = entries.get(it.next());
+          if (entry == null) {
+            // Completed or cancelled in the meantime
+            it.remove();
+            armed--;
+          } else if (entry.deadline <= now) {
+            it.remove();
+            armed--;
+            if (entries.remove(entry.id, entry)) {
+              expired.add(entry);
+            }
+          }
+          // else: deadline is on a later revolution of the wheel
+        }
+      }
+      lastTick = currentTick;
+
+      if (armed > 0) {
+        scheduleTick(TICK_MS);
+      }
+    }
+
+    for (Entry entry : expired) {
+      timedOut.incrementAndGet();
+      BridgeMetrics.get().recordTimeout(entry.method);
+      Log.w(TAG, entry.method + " request " + entry.id + " timed out");
+      entry.promise.reject(ERROR_TIMEOUT, entry.method + " request timed out");
+    }
+  }
+}
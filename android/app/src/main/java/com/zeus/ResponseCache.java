@@ -0,0 +1,220 @@
+package app.zeusln.zeus;
+
+import android.os.Bundle;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import lnrpc.LightningOuterClass.Invoice;
+
+/**
+ * Read-through cache for idempotent lnd queries that several screens repeat
+ * within seconds of each other.
+ *
+ * Entries are keyed by method and request bytes, live for the method's TTL and
+ * are evicted least recently used first once the cache holds more than
+ * MAX_BYTES of responses. Events already passing through LndMobileService drop
+ * entries early: channel events, opens and closes invalidate channel lists and
+ * balances, settled invoices and payments invalidate balances, and so on.
+ *
+ * A response is only stored if no invalidation for its method happened while
+ * the call was in flight, so a reply computed before an event can't outlive it.
+ *
+ * Keys don't say which lnd a response came from, so the service clears the
+ * cache whenever lnd stops or starts, e.g. on a wallet switch.
+ */
+final class ResponseCache {
+  static final int MAX_BYTES = 4 * 1024 * 1024;
+
+  private static final Map<String, Long> TTL_MS = new HashMap<>();
+  private static final Map<String, String[]> INVALIDATED_BY = new HashMap<>();
+
+  static {
+    TTL_MS.put("GetInfo", 2000L);
+    TTL_MS.put("ListChannels", 5000L);
+    TTL_MS.put("ChannelBalance", 5000L);
+    TTL_MS.put("FeeReport", 30000L);
+    TTL_MS.put("GetNodeInfo", 60000L);
+
+    String[] channelState = { "ListChannels", "ChannelBalance", "GetInfo" };
+    String[] balances = { "ChannelBalance", "ListChannels" };
+    INVALIDATED_BY.put("SubscribeChannelEvents", channelState);
+    INVALIDATED_BY.put("OpenChannel", channelState);
+    INVALIDATED_BY.put("OpenChannelSync", channelState);
+    INVALIDATED_BY.put("BatchOpenChannel", channelState);
+    INVALIDATED_BY.put("CloseChannel", channelState);
+    INVALIDATED_BY.put("AbandonChannel", channelState);
+    INVALIDATED_BY.put("RouterSendPaymentV2", balances);
+    INVALIDATED_BY.put("SendPaymentSync", balances);
+    INVALIDATED_BY.put("SendToRouteSync", balances);
+    INVALIDATED_BY.put("UpdateChannelPolicy", new String[] { "FeeReport", "ListChannels" });
+    INVALIDATED_BY.put("ConnectPeer", new String[] { "GetInfo" });
+    INVALIDATED_BY.put("DisconnectPeer", new String[] { "GetInfo" });
+  }
+
+  static final class Key {
+    final String method;
+    final byte[] request;
+    private final int hash;
+
+    Key(String method, byte[] request) {
+      this.method = method;
+      this.request = request != null ? request : new byte[0];
+      this.hash = 31 * method.hashCode() + Arrays.hashCode(this.request);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash && method.equals(other.method) && Arrays.equals(request, other.request);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Entry {
+    final byte[] response;
+    final long expiresAt;
+
+    Entry(byte[] response, long expiresAt) {
+      this.response = response;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final ElapsedClock clock;
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(32, 0.75f, true);
+  private final Map<String, Long> generations = new HashMap<>();
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long invalidations = 0;
+
+  ResponseCache() {
+    this(ElapsedClock.SYSTEM);
+  }
+
+  ResponseCache(ElapsedClock clock) {
+    this.clock = clock;
+  }
+
+  static boolean isCacheable(String method) {
+    return TTL_MS.containsKey(method);
+  }
+
+  synchronized byte[] get(Key key) {
+    Entry entry = entries.get(key);
+    if (entry != null && entry.expiresAt > clock.elapsedRealtime()) {
+      hits++;
+      return entry.response;
+    }
+    if (entry != null) {
+      remove(key);
+    }
+    misses++;
+    return null;
+  }
+
+  /**
+   * Taken when the call is dispatched and handed back to put(), which ignores
+   * the response if the method was invalidated in between.
+   */
+  synchronized long generation(String method) {
+    Long generation = generations.get(method);
+    return generation != null ? generation : 0;
+  }
+
+  synchronized void put(Key key, long generation, byte[] response) {
+    if (response == null || response.length > MAX_BYTES / 4 || generation != generation(key.method)) {
+      return;
+    }
+    remove(key);
+    entries.put(key, new Entry(response, clock.elapsedRealtime() + TTL_MS.get(key.method)));
+    bytes += response.length;
+
+    Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+    while (bytes > MAX_BYTES && eldest.hasNext()) {
+      bytes -= eldest.next().getValue().response.length;
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Called for every successful unary response and stream event passing through the service.
+   */
+  void onEvent(String method, byte[] payload) {
+    String[] affected = INVALIDATED_BY.get(method);
+    if (affected == null && "SubscribeInvoices".equals(method) && isSettled(payload)) {
+      affected = new String[] { "ChannelBalance", "ListChannels" };
+    }
+    if (affected == null) {
+      return;
+    }
+    synchronized (this) {
+      for (String invalidated : affected) {
+        generations.put(invalidated, generation(invalidated) + 1);
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+          Map.Entry<Key, Entry> entry = it.next();
+          if (entry.getKey().method.equals(invalidated)) {
+            bytes -= entry.getValue().response.length;
+            it.remove();
+            invalidations++;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops every entry and invalidates every method, so that calls still in
+   * flight don't store their responses either.
+   */
+  synchronized void clear() {
+    for (String method : TTL_MS.keySet()) {
+      generations.put(method, generation(method) + 1);
+    }
+    invalidations += entries.size();
+    entries.clear();
+    bytes = 0;
+  }
+
+  synchronized Bundle getStats() {
+    Bundle stats = new Bundle();
+    stats.putInt("entries", entries.size());
+    stats.putDouble("bytes", bytes);
+    stats.putDouble("hits", hits);
+    stats.putDouble("misses", misses);
+    stats.putDouble("evictions", evictions);
+    stats.putDouble("invalidations", invalidations);
+    return stats;
+  }
+
+  private void remove(Key key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      bytes -= entry.response.length;
+    }
+  }
+
+  private static boolean isSettled(byte[] payload) {
+    try {
+      return Invoice.parseFrom(payload).getState() == Invoice.InvoiceState.SETTLED;
+    } catch (InvalidProtocolBufferException e) {
+      return false;
+    }
+  }
+}
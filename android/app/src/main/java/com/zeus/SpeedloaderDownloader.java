@@ -0,0 +1,391 @@
+package app.zeusln.zeus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.brotli.dec.BrotliInputStream;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Downloads the speedloader graph into a staging directory ahead of
+ * Lndmobile.gossipSync, so that a download cut off on flaky mobile data
+ * resumes where it stopped instead of starting over.
+ *
+ * The graph is kept exactly as the server sent it (usually brotli encoded),
+ * together with graph.json describing it:
+ *
+ * - An interrupted download stays in graph.part and continues with a Range
+ *   request, guarded by If-Range so a changed graph is fetched whole.
+ * - A complete graph is revalidated with If-None-Match/If-Modified-Since,
+ *   and a 304 keeps it.
+ * - Before a download is accepted it is decoded in full, which catches
+ *   truncated or corrupt brotli streams, and the SHA-256 of the decoded
+ *   graph is checked against the server's <url>.sha256 if there is one.
+ *
+ * Plain Java with HttpURLConnection, so it runs against a local HTTP
+ * stand-in on the JVM, see SpeedloaderDownloaderTest in the benchmarks module.
+ */
+final class SpeedloaderDownloader {
+  // Where speedloader servers publish the graph, relative to the service URL.
+  // They only publish one for mainnet.
+  static final String GRAPH_PATH = "mainnet/graph/graph-001d.db";
+  private static final String GRAPH_NETWORK = "mainnet";
+
+  private static final Pattern CONF_NETWORK = Pattern.compile("^\\s*bitcoin\\.(\\w+)\\s*=\\s*(1|true)\\s*$");
+
+  static final String GRAPH_FILE_NAME = "graph.db";
+  private static final String PART_FILE_NAME = "graph.part";
+  private static final String META_FILE_NAME = "graph.json";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int CONNECT_TIMEOUT_MS = 15000;
+  private static final int READ_TIMEOUT_MS = 30000;
+
+  interface Listener {
+    // total is -1 while unknown
+    void onDownloadProgress(long downloaded, long total);
+
+    void onVerifying();
+  }
+
+  /**
+   * A complete, verified graph and the headers it was served with.
+   */
+  static final class StagedGraph {
+    final File file;
+    final String contentType;
+    final String contentEncoding;
+    final String sha256;
+    // false if the server still had the staged graph (304)
+    final boolean downloaded;
+
+    StagedGraph(File file, String contentType, String contentEncoding, String sha256, boolean downloaded) {
+      this.file = file;
+      this.contentType = contentType;
+      this.contentEncoding = contentEncoding;
+      this.sha256 = sha256;
+      this.downloaded = downloaded;
+    }
+  }
+
+  private final File dir;
+  private volatile boolean cancelled;
+  private volatile HttpURLConnection connection;
+
+  SpeedloaderDownloader(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * The graph URL for network, or null if speedloader servers don't publish
+   * a graph for it.
+   */
+  static String graphUrl(String serviceUrl, String network) {
+    if (!GRAPH_NETWORK.equals(network)) {
+      return null;
+    }
+    return (serviceUrl.endsWith("/") ? serviceUrl : serviceUrl + "/") + GRAPH_PATH;
+  }
+
+  /**
+   * The network an lnd.conf enables (bitcoin.mainnet=1 and so on), or null
+   * if it can't be read or enables none.
+   */
+  static String networkFromConf(File conf) {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(conf), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher matcher = CONF_NETWORK.matcher(line);
+        if (matcher.matches() && !"active".equals(matcher.group(1))) {
+          return matcher.group(1);
+        }
+      }
+    } catch (IOException e) {
+      // Treated as unknown
+    }
+    return null;
+  }
+
+  /**
+   * Aborts fetch() from another thread; it then throws InterruptedIOException.
+   */
+  void cancel() {
+    cancelled = true;
+    HttpURLConnection current = connection;
+    if (current != null) {
+      current.disconnect();
+    }
+  }
+
+  StagedGraph fetch(String url, Listener listener) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create " + dir);
+    }
+    File graph = new File(dir, GRAPH_FILE_NAME);
+    File part = new File(dir, PART_FILE_NAME);
+    JSONObject meta = readMeta();
+
+    // Staged for another server, start over
+    if (!url.equals(meta.optString("url"))) {
+      graph.delete();
+      part.delete();
+      meta = new JSONObject();
+    }
+
+    boolean complete = graph.isFile() && meta.optBoolean("complete");
+    long resumeFrom = !complete && part.isFile() ? part.length() : 0;
+    String validator = meta.has("etag") ? meta.optString("etag") : meta.optString("lastModified", null);
+
+    HttpURLConnection conn = open(url);
+    try {
+      conn.setRequestProperty("Accept-Encoding", "br");
+      if (complete) {
+        if (meta.has("etag")) {
+          conn.setRequestProperty("If-None-Match", meta.optString("etag"));
+        }
+        if (meta.has("lastModified")) {
+          conn.setRequestProperty("If-Modified-Since", meta.optString("lastModified"));
+        }
+      } else if (resumeFrom > 0 && validator != null) {
+        conn.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+        conn.setRequestProperty("If-Range", validator);
+      } else {
+        resumeFrom = 0;
+      }
+
+      int status = conn.getResponseCode();
+      checkCancelled();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED && complete) {
+        return staged(graph, meta, false);
+      }
+      if (status == 416) {
+        // The part doesn't fit the graph on the server anymore
+        part.delete();
+        throw new IOException("Could not resume " + url + " at " + resumeFrom + " bytes");
+      }
+      if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_PARTIAL) {
+        throw new IOException("Unexpected response " + status + " for " + url);
+      }
+
+      boolean append = status == HttpURLConnection.HTTP_PARTIAL && resumeFrom > 0;
+      if (!append) {
+        resumeFrom = 0;
+      }
+      long total = total(conn, resumeFrom);
+
+      // A resumed response may leave out validators the first one had
+      if (!append) {
+        meta = new JSONObject();
+      }
+      meta.remove("complete");
+      meta.put("url", url);
+      putIfNotNull(meta, "etag", conn.getHeaderField("ETag"));
+      putIfNotNull(meta, "lastModified", conn.getHeaderField("Last-Modified"));
+      putIfNotNull(meta, "contentType", conn.getContentType());
+      putIfNotNull(meta, "contentEncoding", conn.getContentEncoding());
+      meta.put("length", total);
+      writeMeta(meta);
+
+      long downloaded = resumeFrom;
+      try (InputStream in = conn.getInputStream();
+           OutputStream out = new FileOutputStream(part, append)) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          checkCancelled();
+          out.write(buffer, 0, read);
+          downloaded += read;
+          if (listener != null) {
+            listener.onDownloadProgress(downloaded, total);
+          }
+        }
+      } catch (IOException e) {
+        checkCancelled();
+        throw e;
+      }
+      if (total >= 0 && downloaded != total) {
+        throw new IOException("Download of " + url + " ended at " + downloaded + " of " + total + " bytes");
+      }
+    } catch (JSONException e) {
+      throw new IOException("Could not write " + META_FILE_NAME, e);
+    } finally {
+      conn.disconnect();
+      connection = null;
+    }
+
+    if (listener != null) {
+      listener.onVerifying();
+    }
+    String sha256;
+    try {
+      sha256 = decodedSha256(part, meta.optString("contentEncoding"));
+    } catch (InterruptedIOException e) {
+      throw e;
+    } catch (IOException e) {
+      // Resuming a corrupt download would never get it right
+      part.delete();
+      throw e;
+    }
+    String expected = expectedSha256(url);
+    if (expected != null && !expected.equalsIgnoreCase(sha256)) {
+      part.delete();
+      throw new IOException("Checksum mismatch for " + url + ": expected " + expected + ", got " + sha256);
+    }
+
+    graph.delete();
+    if (!part.renameTo(graph)) {
+      throw new IOException("Could not rename " + part + " to " + graph);
+    }
+    try {
+      meta.put("sha256", sha256);
+      meta.put("complete", true);
+      writeMeta(meta);
+    } catch (JSONException e) {
+      throw new IOException("Could not write " + META_FILE_NAME, e);
+    }
+    return staged(graph, meta, true);
+  }
+
+  private HttpURLConnection open(String url) throws IOException {
+    checkCancelled();
+    HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+    conn.setReadTimeout(READ_TIMEOUT_MS);
+    conn.setUseCaches(false);
+    connection = conn;
+    return conn;
+  }
+
+  /**
+   * Decodes the whole file, which fails on truncated or corrupt brotli,
+   * and returns the SHA-256 of the decoded bytes.
+   */
+  private String decodedSha256(File file, String contentEncoding) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    InputStream raw = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    try (InputStream in = "br".equalsIgnoreCase(contentEncoding) ? new BrotliInputStream(raw) : raw) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        checkCancelled();
+        digest.update(buffer, 0, read);
+      }
+    }
+    return hex(digest.digest());
+  }
+
+  // The checksum is optional, servers that don't publish one answer 404
+  private String expectedSha256(String url) throws IOException {
+    HttpURLConnection conn = open(url + ".sha256");
+    try {
+      if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        return null;
+      }
+      byte[] body = readAll(conn.getInputStream(), 1024);
+      String[] fields = new String(body, StandardCharsets.US_ASCII).trim().split("\\s+");
+      return fields.length > 0 && fields[0].length() == 64 ? fields[0] : null;
+    } finally {
+      conn.disconnect();
+      connection = null;
+    }
+  }
+
+  private static long total(HttpURLConnection conn, long resumeFrom) {
+    String range = conn.getHeaderField("Content-Range");
+    if (range != null && range.contains("/")) {
+      try {
+        return Long.parseLong(range.substring(range.indexOf('/') + 1).trim());
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+    long length = conn.getContentLengthLong();
+    return length >= 0 ? resumeFrom + length : -1;
+  }
+
+  private StagedGraph staged(File graph, JSONObject meta, boolean downloaded) {
+    return new StagedGraph(
+      graph,
+      meta.optString("contentType", "application/octet-stream"),
+      meta.optString("contentEncoding", null),
+      meta.optString("sha256", null),
+      downloaded
+    );
+  }
+
+  private JSONObject readMeta() {
+    File file = new File(dir, META_FILE_NAME);
+    if (!file.isFile()) {
+      return new JSONObject();
+    }
+    try (InputStream in = new FileInputStream(file)) {
+      return new JSONObject(new String(readAll(in, 64 * 1024), StandardCharsets.UTF_8));
+    } catch (IOException | JSONException e) {
+      return new JSONObject();
+    }
+  }
+
+  private void writeMeta(JSONObject meta) throws IOException {
+    File file = new File(dir, META_FILE_NAME);
+    File tmp = new File(dir, META_FILE_NAME + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      out.write(meta.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    if (!tmp.renameTo(file)) {
+      throw new IOException("Could not rename " + tmp + " to " + file);
+    }
+  }
+
+  private void checkCancelled() throws InterruptedIOException {
+    if (cancelled) {
+      throw new InterruptedIOException("Speedloader download cancelled");
+    }
+  }
+
+  private static void putIfNotNull(JSONObject json, String key, String value) throws JSONException {
+    if (value != null) {
+      json.put(key, value);
+    }
+  }
+
+  private static byte[] readAll(InputStream in, int limit) throws IOException {
+    byte[] buffer = new byte[limit];
+    int length = 0;
+    int read;
+    while (length < limit && (read = in.read(buffer, length, limit - length)) != -1) {
+      length += read;
+    }
+    byte[] bytes = new byte[length];
+    System.arraycopy(buffer, 0, bytes, 0, length);
+    return bytes;
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+}
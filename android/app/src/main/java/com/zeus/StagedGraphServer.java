@@ -0,0 +1,120 @@
+package app.zeusln.zeus;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves a graph staged by SpeedloaderDownloader to lnd over loopback HTTP.
+ *
+ * Lndmobile.gossipSync only takes a service URL, so pointing it at url()
+ * instead of the speedloader server lets lnd read the staged graph without
+ * any change on the Go side. Every GET, whatever its path, gets the graph
+ * with the Content-Type and Content-Encoding the origin served it with, so
+ * lnd decodes it exactly as it would have.
+ *
+ * Connections are served one at a time, which is all gossipSync makes.
+ */
+final class StagedGraphServer implements Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_REQUEST_HEADER_BYTES = 16 * 1024;
+  private static final int SO_TIMEOUT_MS = 30000;
+
+  private final SpeedloaderDownloader.StagedGraph graph;
+  private final ServerSocket serverSocket;
+  private final Thread thread;
+
+  private StagedGraphServer(SpeedloaderDownloader.StagedGraph graph) throws IOException {
+    this.graph = graph;
+    this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    this.thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        serve();
+      }
+    }, "StagedGraphServer");
+    this.thread.setDaemon(true);
+  }
+
+  static StagedGraphServer start(SpeedloaderDownloader.StagedGraph graph) throws IOException {
+    StagedGraphServer server = new StagedGraphServer(graph);
+    server.thread.start();
+    return server;
+  }
+
+  String url() {
+    return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+  }
+
+  @Override
+  public void close() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // closing anyway
+    }
+  }
+
+  private void serve() {
+    while (!serverSocket.isClosed()) {
+      try (Socket socket = serverSocket.accept()) {
+        socket.setSoTimeout(SO_TIMEOUT_MS);
+        handle(socket);
+      } catch (IOException e) {
+        // The server was closed, or the client went away mid-response
+      }
+    }
+  }
+
+  private void handle(Socket socket) throws IOException {
+    String requestLine = readRequestHead(socket.getInputStream());
+    OutputStream out = socket.getOutputStream();
+    boolean head = requestLine.startsWith("HEAD ");
+    if (!requestLine.startsWith("GET ") && !head) {
+      out.write("HTTP/1.1 405 Method Not Allowed\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+      return;
+    }
+
+    StringBuilder headers = new StringBuilder("HTTP/1.1 200 OK\r\n")
+      .append("Content-Length: ").append(graph.file.length()).append("\r\n")
+      .append("Content-Type: ").append(graph.contentType).append("\r\n")
+      .append("Connection: close\r\n");
+    if (graph.contentEncoding != null && !graph.contentEncoding.isEmpty()) {
+      headers.append("Content-Encoding: ").append(graph.contentEncoding).append("\r\n");
+    }
+    out.write(headers.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+    if (head) {
+      return;
+    }
+
+    try (InputStream in = new BufferedInputStream(new FileInputStream(graph.file), BUFFER_SIZE)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+    out.flush();
+  }
+
+  // Reads up to the blank line ending the request headers and returns the request line
+  private static String readRequestHead(InputStream in) throws IOException {
+    StringBuilder head = new StringBuilder();
+    int c;
+    while (head.length() < MAX_REQUEST_HEADER_BYTES && (c = in.read()) != -1) {
+      head.append((char) c);
+      if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+        break;
+      }
+    }
+    int end = head.indexOf("\r\n");
+    return end >= 0 ? head.substring(0, end) : head.toString();
+  }
+}
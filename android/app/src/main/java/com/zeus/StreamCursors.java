@@ -0,0 +1,168 @@
+package app.zeusln.zeus;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import lnrpc.LightningOuterClass.Invoice;
+import lnrpc.LightningOuterClass.InvoiceSubscription;
+import lnrpc.LightningOuterClass.ListPaymentsRequest;
+import lnrpc.LightningOuterClass.Payment;
+
+/**
+ * Persisted positions in lnd's invoice and payment streams, so that a
+ * subscription started after a restart of lnd or of the app picks up where
+ * the previous one left off instead of silently missing what happened in between.
+ *
+ * For invoices these are the highest add_index and settle_index seen on
+ * SubscribeInvoices. A new subscription that doesn't ask for cursors itself is
+ * sent to lnd with them, and lnd first replays everything added or settled since.
+ *
+ * TrackPayments has no cursor in its request, so for payments this keeps the
+ * highest payment_index seen and backfillRequest() builds the ListPayments call
+ * that catches up from there.
+ *
+ * Cursors are kept per lnd directory and network, set from lnd's start args.
+ */
+final class StreamCursors {
+  private static final String TAG = "StreamCursors";
+  private static final String PREFS_NAME = "lnd_stream_cursors";
+
+  static final String INVOICES = "SubscribeInvoices";
+  static final String PAYMENTS = "RouterTrackPayments";
+
+  // Upper bound for one catch-up ListPayments call
+  static final long MAX_BACKFILL_PAYMENTS = 1000;
+
+  private final SharedPreferences prefs;
+  private String scope;
+  private long addIndex;
+  private long settleIndex;
+  private long paymentIndex;
+
+  StreamCursors(Context context) {
+    prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+  }
+
+  static boolean isResumable(String method) {
+    return INVOICES.equals(method) || PAYMENTS.equals(method);
+  }
+
+  /**
+   * Whether a stream error is lnd going away rather than a problem with the subscription.
+   */
+  static boolean isTransient(String errorCode) {
+    return "Unavailable".equals(errorCode) || "Canceled".equals(errorCode);
+  }
+
+  /**
+   * The lnd directory and network named in lnd's start args, or null if there is no --lnddir.
+   */
+  static String scopeFromArgs(String args) {
+    String lndDir = null;
+    String network = "";
+    for (String arg : args.trim().split("\\s+")) {
+      if (arg.startsWith("--lnddir=")) {
+        lndDir = arg.substring("--lnddir=".length());
+      } else if (arg.startsWith("--bitcoin.") && !arg.contains("=")) {
+        network = arg.substring("--bitcoin.".length());
+      }
+    }
+    return lndDir != null ? lndDir + "|" + network : null;
+  }
+
+  synchronized void setScope(String scope) {
+    this.scope = scope;
+    addIndex = scope != null ? prefs.getLong(scope + ":add_index", 0) : 0;
+    settleIndex = scope != null ? prefs.getLong(scope + ":settle_index", 0) : 0;
+    paymentIndex = scope != null ? prefs.getLong(scope + ":payment_index", 0) : 0;
+  }
+
+  /**
+   * Advances the cursors past a stream event.
+   */
+  void onEvent(String method, byte[] payload) {
+    try {
+      if (INVOICES.equals(method)) {
+        Invoice invoice = Invoice.parseFrom(payload);
+        synchronized (this) {
+          if (scope == null) {
+            return;
+          }
+          SharedPreferences.Editor editor = prefs.edit();
+          boolean changed = false;
+          if (invoice.getAddIndex() > addIndex) {
+            addIndex = invoice.getAddIndex();
+            editor.putLong(scope + ":add_index", addIndex);
+            changed = true;
+          }
+          if (invoice.getSettleIndex() > settleIndex) {
+            settleIndex = invoice.getSettleIndex();
+            editor.putLong(scope + ":settle_index", settleIndex);
+            changed = true;
+          }
+          if (changed) {
+            editor.apply();
+          }
+        }
+      } else if (PAYMENTS.equals(method)) {
+        Payment payment = Payment.parseFrom(payload);
+        synchronized (this) {
+          if (scope != null && payment.getPaymentIndex() > paymentIndex) {
+            paymentIndex = payment.getPaymentIndex();
+            prefs.edit().putLong(scope + ":payment_index", paymentIndex).apply();
+          }
+        }
+      }
+    } catch (InvalidProtocolBufferException e) {
+      Log.w(TAG, "Could not parse " + method + " event", e);
+    }
+  }
+
+  /**
+   * The request to send lnd for a new subscription. Invoice subscriptions that
+   * don't set any cursor get the persisted ones, everything else is unchanged.
+   */
+  byte[] resumeRequest(String method, byte[] request) {
+    if (!INVOICES.equals(method)) {
+      return request;
+    }
+    InvoiceSubscription subscription;
+    try {
+      subscription = InvoiceSubscription.parseFrom(request);
+    } catch (InvalidProtocolBufferException e) {
+      return request;
+    }
+    if (subscription.getAddIndex() != 0 || subscription.getSettleIndex() != 0) {
+      return request;
+    }
+    synchronized (this) {
+      if (addIndex == 0 && settleIndex == 0) {
+        return request;
+      }
+      return subscription.toBuilder()
+        .setAddIndex(addIndex)
+        .setSettleIndex(settleIndex)
+        .build()
+        .toByteArray();
+    }
+  }
+
+  /**
+   * The ListPayments request that returns the payments made since the payment
+   * cursor, or null if the stream needs no backfill.
+   */
+  synchronized byte[] backfillRequest(String method) {
+    if (!PAYMENTS.equals(method) || paymentIndex == 0) {
+      return null;
+    }
+    return ListPaymentsRequest.newBuilder()
+      .setIndexOffset(paymentIndex)
+      .setIncludeIncomplete(true)
+      .setMaxPayments(MAX_BACKFILL_PAYMENTS)
+      .build()
+      .toByteArray();
+  }
+}
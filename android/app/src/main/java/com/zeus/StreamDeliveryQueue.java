@@ -0,0 +1,196 @@
+package app.zeusln.zeus;
+
+import android.os.Handler;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Per-stream delivery policies between LndMobile's IncomingHandler and JS.
+ *
+ * lossless   every event is forwarded (the default, e.g. for SubscribeInvoices)
+ * conflate   only the newest undelivered event is kept (SubscribeState, progress streams)
+ * bounded(N) up to N undelivered events are kept, dropping the oldest
+ *
+ * Events for conflate/bounded streams are held back while the app is in the
+ * background, and, if the stream was configured with awaitAck, while JS still
+ * hasn't acknowledged the previous delivery. Held events are subject to the
+ * policy, so a slow or backgrounded UI can't build up an unbounded backlog.
+ * offer() runs on the IncomingHandler thread, everything else posts to it.
+ */
+class StreamDeliveryQueue {
+  static final String POLICY_LOSSLESS = "lossless";
+  static final String POLICY_CONFLATE = "conflate";
+  static final String POLICY_BOUNDED = "bounded";
+
+  interface Sink {
+    void deliver(String method, WritableMap params);
+  }
+
+  private static final class Policy {
+    final String kind;
+    final int capacity;
+    final boolean awaitAck;
+
+    Policy(String kind, int capacity, boolean awaitAck) {
+      this.kind = kind;
+      this.capacity = capacity;
+      this.awaitAck = awaitAck;
+    }
+  }
+
+  private static final class StreamState {
+    final ArrayDeque<WritableMap> queue = new ArrayDeque<>();
+    boolean awaitingAck = false;
+    long delivered = 0;
+    long dropped = 0;
+    long conflated = 0;
+  }
+
+  private final Sink sink;
+  private final Map<String, Policy> policies = new ConcurrentHashMap<>();
+  private final Map<String, StreamState> streams = new HashMap<>();
+  private Handler handler;
+  private volatile boolean paused = false;
+
+  StreamDeliveryQueue(Sink sink) {
+    this.sink = sink;
+  }
+
+  void setHandler(Handler handler) {
+    this.handler = handler;
+  }
+
+  void configure(String method, String kind, int capacity, boolean awaitAck) {
+    if (POLICY_LOSSLESS.equals(kind)) {
+      policies.remove(method);
+    } else if (POLICY_CONFLATE.equals(kind)) {
+      policies.put(method, new Policy(kind, 1, awaitAck));
+    } else if (POLICY_BOUNDED.equals(kind)) {
+      policies.put(method, new Policy(kind, Math.max(1, capacity), awaitAck));
+    } else {
+      throw new IllegalArgumentException("Unknown stream delivery policy " + kind);
+    }
+    post(new Runnable() {
+      @Override
+      public void run() {
+        drain(method);
+      }
+    });
+  }
+
+  void offer(String method, WritableMap params) {
+    Policy policy = policies.get(method);
+    StreamState state = getState(method);
+
+    if (policy == null && state.queue.isEmpty()) {
+      state.delivered++;
+      sink.deliver(method, params);
+      return;
+    }
+
+    state.queue.addLast(params);
+    if (policy != null) {
+      while (state.queue.size() > policy.capacity) {
+        state.queue.pollFirst();
+        if (POLICY_CONFLATE.equals(policy.kind)) {
+          state.conflated++;
+        } else {
+          state.dropped++;
+        }
+      }
+    }
+    drain(method);
+  }
+
+  /**
+   * Called from JS once it has processed a delivery of an awaitAck stream.
+   */
+  void ack(String method) {
+    post(new Runnable() {
+      @Override
+      public void run() {
+        getState(method).awaitingAck = false;
+        drain(method);
+      }
+    });
+  }
+
+  void setPaused(boolean paused) {
+    this.paused = paused;
+    if (!paused) {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          for (String method : streams.keySet()) {
+            drain(method);
+          }
+        }
+      });
+    }
+  }
+
+  void getStats(Promise promise) {
+    Runnable collect = new Runnable() {
+      @Override
+      public void run() {
+        WritableMap stats = Arguments.createMap();
+        for (Map.Entry<String, StreamState> entry : streams.entrySet()) {
+          Policy policy = policies.get(entry.getKey());
+          StreamState state = entry.getValue();
+          WritableMap stream = Arguments.createMap();
+          stream.putString("policy", policy != null ? policy.kind : POLICY_LOSSLESS);
+          stream.putInt("queued", state.queue.size());
+          stream.putDouble("delivered", state.delivered);
+          stream.putDouble("dropped", state.dropped);
+          stream.putDouble("conflated", state.conflated);
+          stats.putMap(entry.getKey(), stream);
+        }
+        promise.resolve(stats);
+      }
+    };
+    if (handler == null || !handler.post(collect)) {
+      promise.resolve(Arguments.createMap());
+    }
+  }
+
+  private void drain(String method) {
+    StreamState state = streams.get(method);
+    if (state == null) {
+      return;
+    }
+    Policy policy = policies.get(method);
+    if (policy != null && (paused || state.awaitingAck)) {
+      return;
+    }
+    while (!state.queue.isEmpty()) {
+      state.delivered++;
+      sink.deliver(method, state.queue.pollFirst());
+      if (policy != null && policy.awaitAck) {
+        state.awaitingAck = true;
+        return;
+      }
+    }
+  }
+
+  private StreamState getState(String method) {
+    StreamState state = streams.get(method);
+    if (state == null) {
+      state = new StreamState();
+      streams.put(method, state);
+    }
+    return state;
+  }
+
+  private void post(Runnable runnable) {
+    if (handler != null) {
+      handler.post(runnable);
+    }
+  }
+}
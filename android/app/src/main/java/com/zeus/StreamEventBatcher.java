@@ -0,0 +1,142 @@
+package app.zeusln.zeus;
+
+import android.os.Handler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
+/**
+ * Opt-in batching of stream events on their way to JS.
+ *
+ * For methods configured through setStreamBatching, events are accumulated and
+ * emitted as one { batch: [...] } event per interval (about a frame by default)
+ * or as soon as maxMessages have piled up. Everything else is emitted as before.
+ * emit() and the flushes run on LndMobile's IncomingHandler thread.
+ */
+class StreamEventBatcher {
+  static final int DEFAULT_INTERVAL_MS = 16;
+
+  private static final class Policy {
+    final int intervalMs;
+    final int maxMessages;
+
+    Policy(int intervalMs, int maxMessages) {
+      this.intervalMs = intervalMs;
+      this.maxMessages = maxMessages;
+    }
+  }
+
+  private final class Pending implements Runnable {
+    final String method;
+    WritableArray events = Arguments.createArray();
+    int size = 0;
+    boolean scheduled = false;
+
+    Pending(String method) {
+      this.method = method;
+    }
+
+    @Override
+    public void run() {
+      scheduled = false;
+      flush(this);
+    }
+  }
+
+  private final ReactApplicationContext reactContext;
+  private final Map<String, Policy> policies = new ConcurrentHashMap<>();
+  private final Map<String, Pending> pending = new HashMap<>();
+  private Handler handler;
+
+  StreamEventBatcher(ReactApplicationContext reactContext) {
+    this.reactContext = reactContext;
+  }
+
+  void setHandler(Handler handler) {
+    this.handler = handler;
+  }
+
+  /**
+   * An intervalMs of 0 or less turns batching off for the method.
+   */
+  void configure(String method, int intervalMs, int maxMessages) {
+    if (intervalMs <= 0) {
+      policies.remove(method);
+      if (handler != null) {
+        // Flush whatever is left on the handler thread, keeping event order
+        handler.post(new Runnable() {
+          @Override
+          public void run() {
+            Pending p = pending.remove(method);
+            if (p != null) {
+              handler.removeCallbacks(p);
+              flush(p);
+            }
+          }
+        });
+      }
+      return;
+    }
+    policies.put(method, new Policy(intervalMs, Math.max(1, maxMessages)));
+  }
+
+  void emit(String method, WritableMap params) {
+    Policy policy = policies.get(method);
+    if (policy == null || handler == null) {
+      Pending p = pending.remove(method);
+      if (p != null) {
+        flush(p);
+      }
+      send(method, params);
+      return;
+    }
+
+    Pending p = pending.get(method);
+    if (p == null) {
+      p = new Pending(method);
+      pending.put(method, p);
+    }
+    p.events.pushMap(params);
+    p.size++;
+
+    if (p.size >= policy.maxMessages) {
+      if (p.scheduled) {
+        handler.removeCallbacks(p);
+        p.scheduled = false;
+      }
+      flush(p);
+    } else if (!p.scheduled) {
+      p.scheduled = true;
+      handler.postDelayed(p, policy.intervalMs);
+    }
+  }
+
+  private void flush(Pending p) {
+    if (p.size == 0) {
+      return;
+    }
+    WritableMap params = Arguments.createMap();
+    params.putArray("batch", p.events);
+    p.events = Arguments.createArray();
+    p.size = 0;
+    send(p.method, params);
+  }
+
+  private void send(String method, WritableMap params) {
+    long trace = BridgeTracer.begin("LndMobile.emit");
+    try {
+      reactContext
+        .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+        .emit(method, params);
+    } finally {
+      BridgeTracer.end("LndMobile.emit", trace);
+    }
+  }
+}
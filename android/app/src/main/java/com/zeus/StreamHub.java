@@ -0,0 +1,238 @@
+package app.zeusln.zeus;
+
+import android.os.IBinder;
+import android.os.Messenger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fans lnd server streams out to every client subscribed to them.
+ *
+ * There is one upstream lnd subscription per method and request. Clients (the app,
+ * LndMobileScheduledSyncWorker) subscribing to the same stream share it, and a
+ * late joiner can get the last few messages replayed so it doesn't miss the
+ * current state (SubscribeState replays its latest event by default).
+ *
+ * Subscriptions are ref-counted. lndmobile has no way to cancel a server stream,
+ * so an upstream that loses its last subscriber goes dormant instead: it keeps
+ * filling its replay buffer and is picked up again by the next subscriber rather
+ * than starting a second lnd subscription. An upstream that errors out is dropped.
+ *
+ * Upstreams of resumable streams (see StreamCursors) are parked instead when lnd
+ * goes away: they keep their subscribers, and takeParked() hands them back to be
+ * started again once lnd is serving, without the clients noticing.
+ */
+final class StreamHub {
+  static final int MAX_REPLAY = 64;
+
+  private static final Map<String, Integer> DEFAULT_REPLAY = new HashMap<>();
+
+  static {
+    DEFAULT_REPLAY.put("SubscribeState", 1);
+  }
+
+  interface Delivery {
+    void deliverResponse(Messenger client, String method, byte[] bytes);
+    void deliverError(Messenger client, String method, String errorCode, String errorDesc);
+    void onUpstreamResponse(String method, byte[] bytes);
+  }
+
+  final class Upstream implements lndmobile.RecvStream {
+    final ResponseCache.Key key;
+    private final List<Messenger> subscribers = new ArrayList<>();
+    private final ArrayDeque<byte[]> replay = new ArrayDeque<>();
+    private int replayCapacity;
+    // Guarded by upstreams
+    private boolean parked;
+
+    Upstream(ResponseCache.Key key, int replayCapacity) {
+      this.key = key;
+      this.replayCapacity = replayCapacity;
+    }
+
+    @Override
+    public void onResponse(byte[] bytes) {
+      delivery.onUpstreamResponse(key.method, bytes);
+      // Held while delivering so a late joiner's replay can't interleave with live events
+      synchronized (this) {
+        if (replayCapacity > 0) {
+          replay.addLast(bytes);
+          while (replay.size() > replayCapacity) {
+            replay.pollFirst();
+          }
+        }
+        // Copy: a failed delivery unsubscribes the client
+        for (Messenger client : new ArrayList<>(subscribers)) {
+          delivery.deliverResponse(client, key.method, bytes);
+        }
+      }
+    }
+
+    @Override
+    public void onError(Exception e) {
+      String message = e.getMessage() != null ? e.getMessage() : e.toString();
+      String errorCode = LndErrors.code(message);
+      String errorDesc = LndErrors.desc(message);
+
+      if (StreamCursors.isResumable(key.method) && StreamCursors.isTransient(errorCode) && park(this)) {
+        return;
+      }
+      drop(this);
+
+      synchronized (this) {
+        for (Messenger client : new ArrayList<>(subscribers)) {
+          delivery.deliverError(client, key.method, errorCode, errorDesc);
+        }
+        subscribers.clear();
+      }
+    }
+
+    private synchronized void join(Messenger client, int replayCount) {
+      if (indexOf(client) != -1) {
+        return;
+      }
+      subscribers.add(client);
+      int skip = Math.max(0, replay.size() - replayCount);
+      for (byte[] bytes : replay) {
+        if (skip-- > 0) {
+          continue;
+        }
+        delivery.deliverResponse(client, key.method, bytes);
+      }
+      replayCapacity = Math.max(replayCapacity, replayCount);
+    }
+
+    private synchronized boolean leave(IBinder client) {
+      for (int i = 0; i < subscribers.size(); i++) {
+        if (subscribers.get(i).getBinder() == client) {
+          subscribers.remove(i);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private synchronized int indexOf(Messenger client) {
+      for (int i = 0; i < subscribers.size(); i++) {
+        if (subscribers.get(i).getBinder() == client.getBinder()) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private final Delivery delivery;
+  private final Map<ResponseCache.Key, Upstream> upstreams = new HashMap<>();
+
+  StreamHub(Delivery delivery) {
+    this.delivery = delivery;
+  }
+
+  static int defaultReplay(String method) {
+    Integer replay = DEFAULT_REPLAY.get(method);
+    return replay != null ? replay : 0;
+  }
+
+  /**
+   * Subscribes client to the stream. Returns the new upstream if the caller has
+   * to start the lnd subscription with it, or null if an existing one was joined.
+   */
+  Upstream subscribe(String method, byte[] request, Messenger client, int replayCount) {
+    ResponseCache.Key key = new ResponseCache.Key(method, request);
+    int replay = Math.min(Math.max(0, replayCount), MAX_REPLAY);
+    Upstream upstream;
+    boolean created = false;
+    synchronized (upstreams) {
+      upstream = upstreams.get(key);
+      if (upstream == null) {
+        upstream = new Upstream(key, replay);
+        upstreams.put(key, upstream);
+        created = true;
+      }
+    }
+    upstream.join(client, replay);
+    return created ? upstream : null;
+  }
+
+  /**
+   * Called if lnd refused to start the upstream returned by subscribe().
+   */
+  void drop(Upstream upstream) {
+    synchronized (upstreams) {
+      if (upstreams.get(upstream.key) == upstream) {
+        upstreams.remove(upstream.key);
+      }
+    }
+  }
+
+  boolean unsubscribe(String method, byte[] request, Messenger client) {
+    Upstream upstream;
+    synchronized (upstreams) {
+      upstream = upstreams.get(new ResponseCache.Key(method, request));
+    }
+    return upstream != null && upstream.leave(client.getBinder());
+  }
+
+  /**
+   * Called when lnd has stopped and none of the upstreams will deliver again.
+   * Resumable ones are parked, the rest are forgotten.
+   */
+  void clear() {
+    synchronized (upstreams) {
+      Iterator<Upstream> it = upstreams.values().iterator();
+      while (it.hasNext()) {
+        Upstream upstream = it.next();
+        if (StreamCursors.isResumable(upstream.key.method)) {
+          upstream.parked = true;
+        } else {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Unparks and returns the parked upstreams, which the caller has to start again.
+   */
+  List<Upstream> takeParked() {
+    List<Upstream> parked = new ArrayList<>();
+    synchronized (upstreams) {
+      for (Upstream upstream : upstreams.values()) {
+        if (upstream.parked) {
+          upstream.parked = false;
+          parked.add(upstream);
+        }
+      }
+    }
+    return parked;
+  }
+
+  private boolean park(Upstream upstream) {
+    synchronized (upstreams) {
+      if (upstreams.get(upstream.key) != upstream) {
+        return false;
+      }
+      upstream.parked = true;
+      return true;
+    }
+  }
+
+  /**
+   * Drops every subscription of a client that unregistered or died.
+   */
+  void removeClient(Messenger client) {
+    List<Upstream> all;
+    synchronized (upstreams) {
+      all = new ArrayList<>(upstreams.values());
+    }
+    for (Upstream upstream : all) {
+      upstream.leave(client.getBinder());
+    }
+  }
+}
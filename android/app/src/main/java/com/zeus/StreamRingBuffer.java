@@ -0,0 +1,314 @@
+package app.zeusln.zeus;
+
+import android.os.Build;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.util.Log;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-producer/single-consumer ring buffer in SharedMemory for gRPC stream events
+ * going from LndMobileService to LndMobile.
+ *
+ * The producer (LndMobileService) appends records and only asks the caller to ring
+ * the binder "doorbell" (MSG_GRPC_STREAM_RING_DOORBELL) when the consumer has declared
+ * itself idle, so a burst of events drains in a single wakeup on the consumer side.
+ * Payloads too large to go inline are written as a side-payload record and travel
+ * through a regular message instead; the record keeps their place in the stream.
+ *
+ * Cross-process ordering relies on acquire/release access through VarHandles,
+ * which are only available from API 33. Older devices keep using plain messages.
+ * The doorbell handshake is a store followed by a load on each side (write
+ * index then consumerWaiting, and the reverse), which acquire/release doesn't
+ * keep in order, so both use volatile access.
+ *
+ * A full ring never blocks the producer. The event spills into a regular
+ * message tagged with a spill number, and so does every event after it until
+ * the consumer acknowledges the last spill. The consumer drains the ring before
+ * handling a spilled message and acknowledges it after, so events stay in
+ * order and the ring is used again once the consumer has caught up.
+ *
+ * Layout: [0] long writeIndex, [8] long readIndex, [16] int consumerWaiting,
+ * [20] int spillAck, then the data region. Each record is
+ * [int length][byte type][int sequence][int methodLength][method][int aLength][a][int bLength][b].
+ */
+final class StreamRingBuffer {
+  private static final String TAG = "StreamRingBuffer";
+
+  static final int DEFAULT_SIZE = 1024 * 1024;
+  static final int MAX_INLINE_PAYLOAD = 64 * 1024;
+
+  static final byte TYPE_RESPONSE = 0;
+  static final byte TYPE_ERROR = 1;
+  static final byte TYPE_SIDE_PAYLOAD = 2;
+
+  static final int OFFER_WRITTEN = 0;
+  static final int OFFER_WRITTEN_DOORBELL = 1;
+  static final int OFFER_FULL = 2;
+
+  private static final int WRITE_INDEX = 0;
+  private static final int READ_INDEX = 8;
+  private static final int CONSUMER_WAITING = 16;
+  private static final int SPILL_ACK = 20;
+  private static final int HEADER_SIZE = 64;
+  private static final int RECORD_OVERHEAD = 4 + 1 + 4 + 4 + 4 + 4;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  interface Sink {
+    /**
+     * Returns false if the record can't be consumed yet (its side payload hasn't
+     * arrived); draining stops there and resumes on the next drain() call.
+     */
+    boolean onRecord(byte type, int sequence, String method, byte[] a, byte[] b);
+  }
+
+  // Kept out of StreamRingBuffer's own static initializer so that merely
+  // referencing the class on API < 33 doesn't fail.
+  private static final class Atomics {
+    static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+  }
+
+  static boolean isSupported() {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU;
+  }
+
+  private final SharedMemory sharedMemory;
+  private final ByteBuffer buffer;
+  private final int capacity;
+  private final AtomicInteger sequence = new AtomicInteger();
+  private final byte[] intScratch = new byte[4];
+  private boolean closed = false;
+  // Producer side, the last spill handed out
+  private int spill = 0;
+
+  private StreamRingBuffer(SharedMemory sharedMemory) throws ErrnoException {
+    this.sharedMemory = sharedMemory;
+    this.buffer = sharedMemory.mapReadWrite().order(ByteOrder.nativeOrder());
+    this.capacity = sharedMemory.getSize() - HEADER_SIZE;
+  }
+
+  /**
+   * Producer side: allocates a fresh ring. The consumer starts out idle,
+   * so the first record always rings the doorbell.
+   */
+  static StreamRingBuffer create(int size) throws ErrnoException {
+    StreamRingBuffer ring = new StreamRingBuffer(SharedMemory.create("lndmobile_stream_ring", size));
+    Atomics.LONG.setRelease(ring.buffer, WRITE_INDEX, 0L);
+    Atomics.LONG.setRelease(ring.buffer, READ_INDEX, 0L);
+    Atomics.INT.setVolatile(ring.buffer, CONSUMER_WAITING, 1);
+    Atomics.INT.setRelease(ring.buffer, SPILL_ACK, 0);
+    return ring;
+  }
+
+  /**
+   * Consumer side: maps a ring received from the producer.
+   */
+  static StreamRingBuffer attach(SharedMemory sharedMemory) throws ErrnoException {
+    return new StreamRingBuffer(sharedMemory);
+  }
+
+  SharedMemory getSharedMemory() {
+    return sharedMemory;
+  }
+
+  int nextSequence() {
+    return sequence.incrementAndGet();
+  }
+
+  synchronized boolean isClosed() {
+    return closed;
+  }
+
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    SharedMemory.unmap(buffer);
+    sharedMemory.close();
+  }
+
+  // Producer
+
+  int offerResponse(String method, byte[] payload) {
+    return offer(TYPE_RESPONSE, 0, method, payload, EMPTY);
+  }
+
+  int offerError(String method, String code, String desc) {
+    return offer(
+      TYPE_ERROR,
+      0,
+      method,
+      code.getBytes(StandardCharsets.UTF_8),
+      desc != null ? desc.getBytes(StandardCharsets.UTF_8) : EMPTY
+    );
+  }
+
+  int offerSidePayload(String method, int sequence) {
+    return offer(TYPE_SIDE_PAYLOAD, sequence, method, EMPTY, EMPTY);
+  }
+
+  /**
+   * Appends a record, or returns OFFER_FULL right away if it doesn't fit or
+   * earlier events still wait in spilled messages.
+   * Never waits: producers call in on lnd's callback threads under locks.
+   */
+  synchronized int offer(byte type, int seq, String method, byte[] a, byte[] b) {
+    if (closed) {
+      return OFFER_FULL;
+    }
+    if (spill != 0) {
+      if ((int) Atomics.INT.getAcquire(buffer, SPILL_ACK) != spill) {
+        return OFFER_FULL;
+      }
+      Log.i(TAG, "Consumer caught up after " + spill + " spilled events, using the ring again");
+      spill = 0;
+    }
+    byte[] methodBytes = method.getBytes(StandardCharsets.UTF_8);
+    int length = RECORD_OVERHEAD - 4 + methodBytes.length + a.length + b.length;
+    int total = 4 + length;
+    if (total > capacity) {
+      return OFFER_FULL;
+    }
+
+    long write = (long) Atomics.LONG.getOpaque(buffer, WRITE_INDEX);
+    if (capacity - (write - (long) Atomics.LONG.getAcquire(buffer, READ_INDEX)) < total) {
+      return OFFER_FULL;
+    }
+
+    long pos = write;
+    pos = putInt(pos, length);
+    pos = put(pos, new byte[] { type }, 1);
+    pos = putInt(pos, seq);
+    pos = putInt(pos, methodBytes.length);
+    pos = put(pos, methodBytes, methodBytes.length);
+    pos = putInt(pos, a.length);
+    pos = put(pos, a, a.length);
+    pos = putInt(pos, b.length);
+    pos = put(pos, b, b.length);
+    Atomics.LONG.setVolatile(buffer, WRITE_INDEX, pos);
+
+    if ((int) Atomics.INT.getVolatile(buffer, CONSUMER_WAITING) == 1
+        && Atomics.INT.compareAndSet(buffer, CONSUMER_WAITING, 1, 0)) {
+      return OFFER_WRITTEN_DOORBELL;
+    }
+    return OFFER_WRITTEN;
+  }
+
+  /**
+   * After OFFER_FULL, numbers the event that goes out as a message instead.
+   * The ring takes no records until the consumer acknowledges that number.
+   */
+  synchronized int spill() {
+    if (spill == 0) {
+      Log.w(TAG, "Stream ring full, consumer is not keeping up");
+    }
+    return ++spill;
+  }
+
+  // Consumer
+
+  /**
+   * Called once the spilled message with this number has been handled.
+   */
+  synchronized void acknowledgeSpill(int spill) {
+    if (!closed) {
+      Atomics.INT.setRelease(buffer, SPILL_ACK, spill);
+    }
+  }
+
+  /**
+   * Hands every available record to the sink, then marks the consumer idle
+   * so that the producer rings the doorbell for the next one.
+   */
+  synchronized void drain(Sink sink) {
+    if (closed) {
+      return;
+    }
+    long read = (long) Atomics.LONG.getOpaque(buffer, READ_INDEX);
+    while (true) {
+      long write = (long) Atomics.LONG.getAcquire(buffer, WRITE_INDEX);
+      while (read < write) {
+        long pos = read;
+        int length = getInt(pos);
+        pos += 4;
+        byte type = get(pos, 1)[0];
+        pos += 1;
+        int seq = getInt(pos);
+        pos += 4;
+        int methodLength = getInt(pos);
+        pos += 4;
+        String method = new String(get(pos, methodLength), StandardCharsets.UTF_8);
+        pos += methodLength;
+        int aLength = getInt(pos);
+        pos += 4;
+        byte[] a = aLength > 0 ? get(pos, aLength) : EMPTY;
+        pos += aLength;
+        int bLength = getInt(pos);
+        pos += 4;
+        byte[] b = bLength > 0 ? get(pos, bLength) : EMPTY;
+
+        if (!sink.onRecord(type, seq, method, a, b)) {
+          // Stay non-idle, the side payload message will trigger the next drain
+          return;
+        }
+        read += 4 + length;
+        Atomics.LONG.setRelease(buffer, READ_INDEX, read);
+      }
+
+      Atomics.INT.setVolatile(buffer, CONSUMER_WAITING, 1);
+      if ((long) Atomics.LONG.getVolatile(buffer, WRITE_INDEX) == read) {
+        return;
+      }
+      // The producer wrote in between. Whoever wins this CAS, we keep draining;
+      // if the producer won, its doorbell will just find an empty ring.
+      Atomics.INT.compareAndSet(buffer, CONSUMER_WAITING, 1, 0);
+    }
+  }
+
+  private long putInt(long pos, int value) {
+    intScratch[0] = (byte) (value >>> 24);
+    intScratch[1] = (byte) (value >>> 16);
+    intScratch[2] = (byte) (value >>> 8);
+    intScratch[3] = (byte) value;
+    return put(pos, intScratch, 4);
+  }
+
+  private long put(long pos, byte[] src, int length) {
+    int offset = (int) (pos % capacity);
+    int first = Math.min(length, capacity - offset);
+    buffer.position(HEADER_SIZE + offset);
+    buffer.put(src, 0, first);
+    if (first < length) {
+      buffer.position(HEADER_SIZE);
+      buffer.put(src, first, length - first);
+    }
+    return pos + length;
+  }
+
+  private int getInt(long pos) {
+    byte[] bytes = get(pos, 4);
+    return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+  }
+
+  private byte[] get(long pos, int length) {
+    byte[] dst = new byte[length];
+    int offset = (int) (pos % capacity);
+    int first = Math.min(length, capacity - offset);
+    buffer.position(HEADER_SIZE + offset);
+    buffer.get(dst, 0, first);
+    if (first < length) {
+      buffer.position(HEADER_SIZE);
+      buffer.get(dst, first, length - first);
+    }
+    return dst;
+  }
+}
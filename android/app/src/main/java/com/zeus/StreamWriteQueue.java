@@ -0,0 +1,180 @@
+package app.zeusln.zeus;
+
+import android.os.Messenger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-stream write queues for bidirectional lnd streams (ChannelAcceptor,
+ * HTLC interceptor and the like).
+ *
+ * Writes are queued up to CAPACITY per stream; beyond that they are refused
+ * with ResourceExhausted, so a responder writing faster than lnd reads gets
+ * pushed back on instead of growing the queue without bound. A queued stream
+ * is drained in batches of up to MAX_BATCH writes per scheduled task, and each
+ * write is acknowledged only after SendStream.send returned for it. Acks of a
+ * batch go out as one message per client.
+ *
+ * If send fails, the failing write and everything queued behind it are
+ * acknowledged with the error.
+ */
+final class StreamWriteQueue {
+  static final int CAPACITY = 128;
+  static final int MAX_BATCH = 32;
+
+  interface Host {
+    lndmobile.SendStream streamFor(String method);
+    void schedule(String method, Runnable drain);
+    void acknowledge(Messenger client, String method, int[] requests, String errorCode, String errorDesc);
+  }
+
+  private static final class Write {
+    final Messenger client;
+    final int request;
+    final byte[] payload;
+
+    Write(Messenger client, int request, byte[] payload) {
+      this.client = client;
+      this.request = request;
+      this.payload = payload;
+    }
+  }
+
+  private static final class Pending {
+    final ArrayDeque<Write> writes = new ArrayDeque<>();
+    boolean scheduled;
+  }
+
+  private final Host host;
+  private final Map<String, Pending> pending = new HashMap<>();
+
+  StreamWriteQueue(Host host) {
+    this.host = host;
+  }
+
+  /**
+   * Queues a write. Returns false if the stream's queue is full, in which case
+   * nothing is acknowledged and the caller has to refuse the write itself.
+   */
+  boolean offer(final String method, Messenger client, int request, byte[] payload) {
+    synchronized (pending) {
+      Pending queue = pending.get(method);
+      if (queue == null) {
+        queue = new Pending();
+        pending.put(method, queue);
+      }
+      if (queue.writes.size() >= CAPACITY) {
+        return false;
+      }
+      queue.writes.addLast(new Write(client, request, payload));
+      if (queue.scheduled) {
+        return true;
+      }
+      queue.scheduled = true;
+    }
+    scheduleDrain(method);
+    return true;
+  }
+
+  /**
+   * Fails every queued write of a stream, for when lnd closed it.
+   */
+  void fail(String method, String errorCode, String errorDesc) {
+    List<Write> failed;
+    synchronized (pending) {
+      Pending queue = pending.get(method);
+      if (queue == null) {
+        return;
+      }
+      failed = new ArrayList<>(queue.writes);
+      queue.writes.clear();
+    }
+    acknowledge(method, failed, errorCode, errorDesc);
+  }
+
+  private void scheduleDrain(final String method) {
+    host.schedule(method, new Runnable() {
+      @Override
+      public void run() {
+        drain(method);
+      }
+    });
+  }
+
+  private void drain(String method) {
+    List<Write> batch = new ArrayList<>(MAX_BATCH);
+    synchronized (pending) {
+      Pending queue = pending.get(method);
+      while (batch.size() < MAX_BATCH && !queue.writes.isEmpty()) {
+        batch.add(queue.writes.pollFirst());
+      }
+    }
+
+    lndmobile.SendStream stream = host.streamFor(method);
+    String errorCode = null;
+    String errorDesc = null;
+    int sent = 0;
+    if (stream == null) {
+      errorCode = "FailedPrecondition";
+      errorDesc = "Stream " + method + " is not open";
+    } else {
+      for (; sent < batch.size(); sent++) {
+        try {
+          stream.send(batch.get(sent).payload);
+        } catch (Throwable t) {
+          String message = t.getMessage() != null ? t.getMessage() : t.toString();
+          errorCode = LndErrors.code(message);
+          errorDesc = LndErrors.desc(message);
+          break;
+        }
+      }
+    }
+
+    List<Write> failed = new ArrayList<>(batch.subList(sent, batch.size()));
+    boolean more;
+    synchronized (pending) {
+      Pending queue = pending.get(method);
+      if (errorCode != null) {
+        failed.addAll(queue.writes);
+        queue.writes.clear();
+      }
+      more = !queue.writes.isEmpty();
+      queue.scheduled = more;
+    }
+
+    acknowledge(method, batch.subList(0, sent), null, null);
+    acknowledge(method, failed, errorCode, errorDesc);
+
+    // Rescheduled rather than looping, so other streams on the pool get their turn
+    if (more) {
+      scheduleDrain(method);
+    }
+  }
+
+  private void acknowledge(String method, List<Write> writes, String errorCode, String errorDesc) {
+    if (writes.isEmpty()) {
+      return;
+    }
+    Map<Messenger, List<Integer>> byClient = new LinkedHashMap<>();
+    for (Write write : writes) {
+      List<Integer> requests = byClient.get(write.client);
+      if (requests == null) {
+        requests = new ArrayList<>();
+        byClient.put(write.client, requests);
+      }
+      requests.add(write.request);
+    }
+    for (Map.Entry<Messenger, List<Integer>> entry : byClient.entrySet()) {
+      int[] requests = new int[entry.getValue().size()];
+      for (int i = 0; i < requests.length; i++) {
+        requests[i] = entry.getValue().get(i);
+      }
+      host.acknowledge(entry.getKey(), method, requests, errorCode, errorDesc);
+    }
+  }
+}
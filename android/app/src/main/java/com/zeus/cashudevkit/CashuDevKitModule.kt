@@ -291,12 +291,7 @@ class CashuDevKitModule(private val reactContext: ReactApplicationContext) :
     }
 
     private fun encodeProof(proof: Proof): JSONObject {
-        return JSONObject().apply {
-            put("amount", proof.amount.value.toLong())
-            put("secret", proof.secret)
-            put("c", proof.c)
-            put("keyset_id", proof.keysetId)
-        }
+        return CashuJson.proof(proof.amount.value.toLong(), proof.secret, proof.c, proof.keysetId)
     }
 
     private suspend fun encodeToken(token: Token): JSONObject {
@@ -322,14 +317,14 @@ class CashuDevKitModule(private val reactContext: ReactApplicationContext) :
                 // matches the iOS behaviour.
             }
         }
-        return JSONObject().apply {
-            put("encoded", token.encode())
-            put("value", token.value().value.toLong())
-            put("mint_url", token.mintUrl().url)
-            put("memo", token.memo() ?: "")
-            put("unit", token.unit()?.let { currencyUnitToString(it) } ?: "sat")
-            put("proofs", proofsArray)
-        }
+        return CashuJson.token(
+            token.encode(),
+            token.value().value.toLong(),
+            token.mintUrl().url,
+            token.memo() ?: "",
+            token.unit()?.let { currencyUnitToString(it) } ?: "sat",
+            proofsArray
+        )
     }
 
     private fun encodeMintInfo(info: MintInfo): JSONObject {
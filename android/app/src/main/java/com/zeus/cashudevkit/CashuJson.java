@@ -0,0 +1,33 @@
+package app.zeusln.zeus.cashudevkit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The JSON CashuDevKitModule resolves tokens and proofs to JS as.
+ *
+ * Plain Java on top of org.json, kept apart from the CDK types, so that
+ * JsonEncodeBenchmark measures exactly this encoding on the JVM.
+ */
+public final class CashuJson {
+  private CashuJson() {}
+
+  public static JSONObject proof(long amount, String secret, String c, String keysetId) throws JSONException {
+    return new JSONObject()
+      .put("amount", amount)
+      .put("secret", secret)
+      .put("c", c)
+      .put("keyset_id", keysetId);
+  }
+
+  public static JSONObject token(String encoded, long value, String mintUrl, String memo, String unit, JSONArray proofs) throws JSONException {
+    return new JSONObject()
+      .put("encoded", encoded)
+      .put("value", value)
+      .put("mint_url", mintUrl)
+      .put("memo", memo)
+      .put("unit", unit)
+      .put("proofs", proofs);
+  }
+}
@@ -0,0 +1,70 @@
+package app.zeusln.zeus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+  private static final long MAX_TRACKED = (1L << 40) - 1;
+
+  @Test
+  public void smallValuesGetABucketEach() {
+    for (long value = 0; value < 16; value++) {
+      assertEquals(value, LatencyHistogram.indexOf(value));
+      assertEquals(value, LatencyHistogram.highestEquivalent((int) value));
+    }
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    for (int index = 0; index < LatencyHistogram.BUCKETS - 1; index++) {
+      long highest = LatencyHistogram.highestEquivalent(index);
+      assertEquals(index, LatencyHistogram.indexOf(highest));
+      assertEquals(index + 1, LatencyHistogram.indexOf(highest + 1));
+    }
+  }
+
+  @Test
+  public void highestEquivalentIsWithinOneSixteenth() {
+    for (long value = 1; value <= MAX_TRACKED && value > 0; value = value * 3 / 2 + 1) {
+      long highest = LatencyHistogram.highestEquivalent(LatencyHistogram.indexOf(value));
+      assertTrue(value + " -> " + highest, highest >= value);
+      assertTrue(value + " -> " + highest, highest - value <= value / 16);
+    }
+  }
+
+  @Test
+  public void lastBucketEndsAtTheLargestTrackedValue() {
+    assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.indexOf(MAX_TRACKED));
+    assertEquals(MAX_TRACKED, LatencyHistogram.highestEquivalent(LatencyHistogram.BUCKETS - 1));
+  }
+
+  @Test
+  public void valuesFrom2ToThe40UpAreClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1L << 40);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(2, histogram.getCount());
+    assertEquals(MAX_TRACKED, histogram.percentile(100));
+  }
+
+  @Test
+  public void negativeValuesAreClampedToZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertEquals(0, histogram.percentile(100));
+  }
+
+  @Test
+  public void percentilesReportTheirBucketCappedAtMax() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros <= 1000; micros++) {
+      histogram.record(micros);
+    }
+    long p50 = histogram.percentile(50);
+    assertEquals(LatencyHistogram.highestEquivalent(LatencyHistogram.indexOf(500)), p50);
+    assertEquals(1000, histogram.percentile(100));
+    assertEquals(0, new LatencyHistogram().percentile(50));
+  }
+}
@@ -0,0 +1,22 @@
+package app.zeusln.zeus;
+
+/**
+ * An ElapsedClock that only moves when a test advances it.
+ */
+final class ManualClock implements ElapsedClock {
+  private long nowMs = 1000;
+
+  void advance(long ms) {
+    nowMs += ms;
+  }
+
+  @Override
+  public long elapsedRealtime() {
+    return nowMs;
+  }
+
+  @Override
+  public long elapsedRealtimeNanos() {
+    return nowMs * 1000 * 1000;
+  }
+}
@@ -0,0 +1,156 @@
+package app.zeusln.zeus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PendingRequestsTest {
+  private static final long TICK_MS = PendingRequests.TICK_MS;
+
+  private static final class RecordingPromise extends PromiseWrapper {
+    String code;
+    String message;
+    int rejections;
+
+    @Override
+    void onSuccess(@Nullable Object value) {}
+
+    @Override
+    void onFail(Throwable throwable) {}
+
+    @Override
+    public void reject(String code, String message) {
+      this.code = code;
+      this.message = message;
+      rejections++;
+    }
+  }
+
+  // Ticks are driven by the test instead of a timer thread
+  private static final class ManualPendingRequests extends PendingRequests {
+    int scheduled;
+
+    ManualPendingRequests(ElapsedClock clock) {
+      super(clock);
+    }
+
+    @Override
+    void scheduleTick(long delayMs) {
+      scheduled++;
+    }
+  }
+
+  private ManualClock clock;
+  private ManualPendingRequests requests;
+
+  @Before
+  public void setUp() {
+    clock = new ManualClock();
+    requests = new ManualPendingRequests(clock);
+  }
+
+  private void tickFor(long ms) {
+    for (long elapsed = 0; elapsed < ms; elapsed += TICK_MS) {
+      clock.advance(TICK_MS);
+      requests.onTick();
+    }
+  }
+
+  @Test
+  public void rejectsWithTimeoutOnceTheDeadlinePasses() {
+    RecordingPromise promise = new RecordingPromise();
+    int id = requests.register("GetInfo", promise, 1000);
+
+    tickFor(750);
+    assertEquals(0, promise.rejections);
+    assertEquals(1, requests.getPendingCount());
+
+    tickFor(500);
+    assertEquals(1, promise.rejections);
+    assertEquals(PendingRequests.ERROR_TIMEOUT, promise.code);
+    assertEquals(0, requests.getPendingCount());
+    assertEquals(1, requests.getTimedOutCount());
+    assertNull(requests.take(id));
+  }
+
+  @Test
+  public void deadlinePastOneRevolutionDoesNotFireEarly() {
+    // Lands in a slot the wheel sweeps once before the deadline
+    long timeoutMs = 200 * 1000;
+    RecordingPromise promise = new RecordingPromise();
+    requests.register("SendPaymentSync", promise, timeoutMs);
+
+    tickFor(timeoutMs - TICK_MS);
+    assertEquals(0, promise.rejections);
+    assertEquals(1, requests.getPendingCount());
+
+    tickFor(TICK_MS);
+    assertEquals(1, promise.rejections);
+    assertEquals(PendingRequests.ERROR_TIMEOUT, promise.code);
+  }
+
+  @Test
+  public void lateTickCatchesUpOnMissedSlots() {
+    RecordingPromise promise = new RecordingPromise();
+    requests.register("GetInfo", promise, 1000);
+
+    clock.advance(10 * 1000);
+    requests.onTick();
+    assertEquals(1, promise.rejections);
+    assertEquals(PendingRequests.ERROR_TIMEOUT, promise.code);
+  }
+
+  @Test
+  public void cancelRejectsOnceAndNeverTimesOut() {
+    RecordingPromise promise = new RecordingPromise();
+    int id = requests.register("GetInfo", promise, 1000);
+
+    assertTrue(requests.cancel(id));
+    assertEquals(1, promise.rejections);
+    assertEquals(PendingRequests.ERROR_CANCELLED, promise.code);
+    assertFalse(requests.cancel(id));
+
+    tickFor(2000);
+    assertEquals(1, promise.rejections);
+    assertEquals(1, requests.getCancelledCount());
+    assertEquals(0, requests.getTimedOutCount());
+  }
+
+  @Test
+  public void takenRequestDoesNotTimeOut() {
+    RecordingPromise promise = new RecordingPromise();
+    int id = requests.register("GetInfo", promise, 1000);
+
+    assertSame(promise, requests.take(id));
+    tickFor(2000);
+    assertEquals(0, promise.rejections);
+    assertEquals(0, requests.getTimedOutCount());
+  }
+
+  @Test
+  public void timerStopsOnceNothingIsArmed() {
+    requests.register("GetInfo", new RecordingPromise(), 1000);
+    requests.register("ListChannels", new RecordingPromise(), 1000);
+    assertEquals(1, requests.scheduled);
+
+    tickFor(1000);
+    int scheduled = requests.scheduled;
+    tickFor(1000);
+    assertEquals(scheduled, requests.scheduled);
+  }
+
+  @Test
+  public void noTimeoutMeansNoDeadline() {
+    RecordingPromise promise = new RecordingPromise();
+    requests.register("SubscribeState", promise, 0);
+    assertEquals(0, requests.scheduled);
+    assertEquals(1, requests.getPendingCount());
+  }
+}
@@ -0,0 +1,98 @@
+package app.zeusln.zeus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ResponseCacheTest {
+  private final ManualClock clock = new ManualClock();
+  private final ResponseCache cache = new ResponseCache(clock);
+
+  @Test
+  public void expiresEntriesAfterTheirTtl() {
+    ResponseCache.Key key = key("GetInfo", 0);
+    byte[] response = { 1, 2, 3 };
+    cache.put(key, cache.generation("GetInfo"), response);
+
+    clock.advance(1999);
+    assertArrayEquals(response, cache.get(key));
+
+    clock.advance(1);
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedPastTheByteBudget() {
+    int size = ResponseCache.MAX_BYTES / 4;
+    for (int i = 0; i < 4; i++) {
+      cache.put(key("GetNodeInfo", i), cache.generation("GetNodeInfo"), new byte[size]);
+    }
+    // Now the most recently used
+    assertNotNull(cache.get(key("GetNodeInfo", 0)));
+
+    cache.put(key("GetNodeInfo", 4), cache.generation("GetNodeInfo"), new byte[size]);
+
+    assertNull(cache.get(key("GetNodeInfo", 1)));
+    assertNotNull(cache.get(key("GetNodeInfo", 0)));
+    assertNotNull(cache.get(key("GetNodeInfo", 2)));
+    assertNotNull(cache.get(key("GetNodeInfo", 3)));
+    assertNotNull(cache.get(key("GetNodeInfo", 4)));
+  }
+
+  @Test
+  public void ignoresResponsesTooLargeToCache() {
+    ResponseCache.Key key = key("ListChannels", 0);
+    cache.put(key, cache.generation("ListChannels"), new byte[ResponseCache.MAX_BYTES / 4 + 1]);
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  public void dropsAResponseInvalidatedWhileInFlight() {
+    ResponseCache.Key key = key("ListChannels", 0);
+    long generation = cache.generation("ListChannels");
+
+    cache.onEvent("CloseChannel", new byte[0]);
+    cache.put(key, generation, new byte[] { 1 });
+
+    assertNull(cache.get(key));
+
+    cache.put(key, cache.generation("ListChannels"), new byte[] { 1 });
+    assertNotNull(cache.get(key));
+  }
+
+  @Test
+  public void channelOpensAndClosesInvalidateChannelState() {
+    for (String event : new String[] { "OpenChannel", "OpenChannelSync", "BatchOpenChannel", "CloseChannel", "AbandonChannel" }) {
+      for (String method : new String[] { "ListChannels", "ChannelBalance", "GetInfo" }) {
+        cache.put(key(method, 0), cache.generation(method), new byte[] { 1 });
+      }
+      cache.put(key("FeeReport", 0), cache.generation("FeeReport"), new byte[] { 1 });
+
+      cache.onEvent(event, new byte[0]);
+
+      assertNull(event, cache.get(key("ListChannels", 0)));
+      assertNull(event, cache.get(key("ChannelBalance", 0)));
+      assertNull(event, cache.get(key("GetInfo", 0)));
+      assertNotNull(event, cache.get(key("FeeReport", 0)));
+    }
+  }
+
+  @Test
+  public void clearKeepsResponsesInFlightOut() {
+    ResponseCache.Key key = key("FeeReport", 0);
+    long generation = cache.generation("FeeReport");
+    cache.put(key, generation, new byte[] { 1 });
+
+    cache.clear();
+    assertNull(cache.get(key));
+
+    cache.put(key, generation, new byte[] { 1 });
+    assertNull(cache.get(key));
+  }
+
+  private static ResponseCache.Key key(String method, int request) {
+    return new ResponseCache.Key(method, new byte[] { (byte) request });
+  }
+}
@@ -0,0 +1,312 @@
+package app.zeusln.zeus;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs SpeedloaderDownloader and StagedGraphServer against a local stand-in
+ * for a speedloader server, which serves a brotli encoded graph with an ETag,
+ * honours Range/If-Range and If-None-Match, can cut a response short and
+ * publishes the graph's SHA-256 next to it.
+ */
+public class SpeedloaderDownloaderTest {
+  private static final int GRAPH_SIZE = 1024 * 1024;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private HttpServer server;
+  private String serviceUrl;
+  private File dir;
+
+  // What the stand-in serves, changed by the tests
+  private volatile byte[] body;
+  private volatile String etag;
+  private volatile String sha256;
+  private volatile int cutAfter = -1;
+  private volatile String lastRange;
+  private volatile int lastStatus;
+
+  @Before
+  public void setUp() throws Exception {
+    publish(graph(1), "\"v1\"");
+    dir = tmp.newFolder("speedloader");
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::handle);
+    server.start();
+    serviceUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void downloadsAndVerifiesTheGraph() throws Exception {
+    SpeedloaderDownloader.StagedGraph graph = fetch();
+
+    assertTrue(graph.downloaded);
+    assertEquals(sha256, graph.sha256);
+    assertEquals("br", graph.contentEncoding);
+    assertArrayEquals(body, Files.readAllBytes(graph.file.toPath()));
+  }
+
+  @Test
+  public void resumesAnInterruptedDownload() throws Exception {
+    cutAfter = body.length / 3;
+    try {
+      fetch();
+      fail("Expected the cut download to fail");
+    } catch (IOException expected) {
+      // graph.part keeps what arrived
+    }
+    long kept = new File(dir, "graph.part").length();
+    assertTrue(kept > 0);
+
+    cutAfter = -1;
+    final long[] firstProgress = { -1 };
+    SpeedloaderDownloader.StagedGraph graph = new SpeedloaderDownloader(dir).fetch(graphUrl(), new SpeedloaderDownloader.Listener() {
+      @Override
+      public void onDownloadProgress(long downloaded, long total) {
+        if (firstProgress[0] < 0) {
+          firstProgress[0] = downloaded;
+        }
+      }
+
+      @Override
+      public void onVerifying() {}
+    });
+
+    assertEquals("bytes=" + kept + "-", lastRange);
+    assertEquals(206, lastStatus);
+    assertTrue(firstProgress[0] > kept);
+    assertArrayEquals(body, Files.readAllBytes(graph.file.toPath()));
+    assertEquals(sha256, graph.sha256);
+  }
+
+  @Test
+  public void restartsWhenTheGraphChangedSinceTheCut() throws Exception {
+    cutAfter = body.length / 3;
+    try {
+      fetch();
+      fail("Expected the cut download to fail");
+    } catch (IOException expected) {
+      // graph.part keeps what arrived
+    }
+
+    cutAfter = -1;
+    publish(graph(2), "\"v2\"");
+    SpeedloaderDownloader.StagedGraph graph = fetch();
+
+    // If-Range didn't match, so the server sent the new graph whole
+    assertEquals(200, lastStatus);
+    assertArrayEquals(body, Files.readAllBytes(graph.file.toPath()));
+    assertEquals(sha256, graph.sha256);
+  }
+
+  @Test
+  public void keepsAStagedGraphTheServerStillHas() throws Exception {
+    fetch();
+    SpeedloaderDownloader.StagedGraph graph = fetch();
+
+    assertEquals(304, lastStatus);
+    assertFalse(graph.downloaded);
+    assertEquals(sha256, graph.sha256);
+    assertArrayEquals(body, Files.readAllBytes(graph.file.toPath()));
+  }
+
+  @Test
+  public void rejectsAGraphWithTheWrongChecksum() throws Exception {
+    sha256 = "00".repeat(32);
+    try {
+      fetch();
+      fail("Expected a checksum mismatch");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage().startsWith("Checksum mismatch"));
+    }
+    assertFalse(new File(dir, "graph.part").exists());
+    assertFalse(new File(dir, "graph.db").exists());
+  }
+
+  @Test
+  public void servesTheStagedGraphAsTheOriginDid() throws Exception {
+    SpeedloaderDownloader.StagedGraph graph = fetch();
+
+    try (StagedGraphServer staged = StagedGraphServer.start(graph)) {
+      HttpURLConnection conn = (HttpURLConnection) new URL(staged.url() + SpeedloaderDownloader.GRAPH_PATH).openConnection();
+      assertEquals(200, conn.getResponseCode());
+      assertEquals("br", conn.getContentEncoding());
+      try (InputStream in = conn.getInputStream()) {
+        assertArrayEquals(body, in.readAllBytes());
+      }
+    }
+  }
+
+  @Test
+  public void onlyPrefetchesForMainnet() throws Exception {
+    File conf = tmp.newFile("lnd.conf");
+    Files.write(conf.toPath(), "[Bitcoin]\nbitcoin.active=1\nbitcoin.mainnet=0\nbitcoin.testnet=1\nbitcoin.node=neutrino\n".getBytes(StandardCharsets.UTF_8));
+    String network = SpeedloaderDownloader.networkFromConf(conf);
+    assertEquals("testnet", network);
+    assertNull(SpeedloaderDownloader.graphUrl(serviceUrl, network));
+
+    Files.write(conf.toPath(), "[Bitcoin]\nbitcoin.mainnet=1\nbitcoin.testnet=0\n".getBytes(StandardCharsets.UTF_8));
+    assertEquals(graphUrl(), SpeedloaderDownloader.graphUrl(serviceUrl, SpeedloaderDownloader.networkFromConf(conf)));
+    assertNull(SpeedloaderDownloader.networkFromConf(new File(tmp.getRoot(), "missing.conf")));
+  }
+
+  private SpeedloaderDownloader.StagedGraph fetch() throws IOException {
+    return new SpeedloaderDownloader(dir).fetch(graphUrl(), null);
+  }
+
+  private String graphUrl() {
+    return SpeedloaderDownloader.graphUrl(serviceUrl, "mainnet");
+  }
+
+  private void publish(byte[] graph, String etag) throws Exception {
+    this.body = brotliStored(graph);
+    this.etag = etag;
+    this.sha256 = hex(MessageDigest.getInstance("SHA-256").digest(graph));
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (exchange.getRequestURI().getPath().endsWith(".sha256")) {
+        byte[] checksum = (sha256 + "  graph-001d.db\n").getBytes(StandardCharsets.US_ASCII);
+        exchange.sendResponseHeaders(200, checksum.length);
+        exchange.getResponseBody().write(checksum);
+        return;
+      }
+
+      exchange.getResponseHeaders().set("ETag", etag);
+      exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+      exchange.getResponseHeaders().set("Content-Encoding", "br");
+      if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        lastStatus = 304;
+        exchange.sendResponseHeaders(304, -1);
+        return;
+      }
+
+      lastRange = exchange.getRequestHeaders().getFirst("Range");
+      int from = 0;
+      if (lastRange != null && etag.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+        from = Integer.parseInt(lastRange.substring("bytes=".length(), lastRange.length() - 1));
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (body.length - 1) + "/" + body.length);
+        respond(exchange, 206, body, from, body.length);
+      } else {
+        respond(exchange, 200, body, 0, body.length);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  // Announces the full length but, with cutAfter set, drops the connection early.
+  // Records the status of the last graph response.
+  private void respond(HttpExchange exchange, int status, byte[] bytes, int from, int to) throws IOException {
+    lastStatus = status;
+    exchange.sendResponseHeaders(status, to - from);
+    int end = cutAfter > 0 ? Math.min(to, from + cutAfter) : to;
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes, from, end - from);
+    out.flush();
+    if (end < to) {
+      throw new IOException("Cut short");
+    }
+  }
+
+  private static byte[] graph(long seed) {
+    byte[] graph = new byte[GRAPH_SIZE];
+    new Random(seed).nextBytes(graph);
+    return graph;
+  }
+
+  /**
+   * A valid brotli stream of uncompressed meta-blocks, so the test needs no
+   * encoder: WBITS 16, then per 64KB chunk ISLAST=0, MNIBBLES=4, MLEN-1 and
+   * ISUNCOMPRESSED=1 followed by the raw bytes, then an empty last meta-block.
+   */
+  static byte[] brotliStored(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BitWriter bits = new BitWriter(out);
+    bits.write(0, 1);
+    for (int offset = 0; offset < data.length; offset += 65536) {
+      int length = Math.min(65536, data.length - offset);
+      bits.write(0, 1);
+      bits.write(0, 2);
+      bits.write(length - 1, 16);
+      bits.write(1, 1);
+      bits.flush();
+      out.write(data, offset, length);
+    }
+    bits.write(1, 1);
+    bits.write(1, 1);
+    bits.flush();
+    return out.toByteArray();
+  }
+
+  private static final class BitWriter {
+    private final ByteArrayOutputStream out;
+    private int current;
+    private int count;
+
+    BitWriter(ByteArrayOutputStream out) {
+      this.out = out;
+    }
+
+    // Least significant bit first
+    void write(int value, int bits) {
+      for (int i = 0; i < bits; i++) {
+        current |= ((value >>> i) & 1) << count;
+        if (++count == 8) {
+          flush();
+        }
+      }
+    }
+
+    // Pads to the next byte boundary with zeros
+    void flush() {
+      if (count > 0) {
+        out.write(current);
+        current = 0;
+        count = 0;
+      }
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+}
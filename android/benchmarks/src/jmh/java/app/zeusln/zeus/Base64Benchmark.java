@@ -0,0 +1,47 @@
+package app.zeusln.zeus;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Base64 of request and response payloads as they cross the React Native bridge.
+ * The app uses android.util.Base64 with NO_WRAP, which produces the same bytes
+ * as java.util.Base64's basic encoder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Base64Benchmark {
+  @Param({ "GetInfo", "ListChannels" })
+  public String payload;
+
+  private byte[] bytes;
+  private String encoded;
+
+  @Setup
+  public void setup() {
+    bytes = "GetInfo".equals(payload)
+      ? BenchmarkFixtures.getInfoResponse()
+      : BenchmarkFixtures.listChannelsResponse();
+    encoded = Base64.getEncoder().encodeToString(bytes);
+  }
+
+  @Benchmark
+  public String encode() {
+    return Base64.getEncoder().encodeToString(bytes);
+  }
+
+  @Benchmark
+  public byte[] decode() {
+    return Base64.getDecoder().decode(encoded);
+  }
+}
@@ -0,0 +1,169 @@
+package app.zeusln.zeus;
+
+import java.util.Random;
+
+import com.google.protobuf.ByteString;
+
+import lnrpc.LightningOuterClass.Channel;
+import lnrpc.LightningOuterClass.ChannelConstraints;
+import lnrpc.LightningOuterClass.Chain;
+import lnrpc.LightningOuterClass.CommitmentType;
+import lnrpc.LightningOuterClass.Feature;
+import lnrpc.LightningOuterClass.GetInfoResponse;
+import lnrpc.LightningOuterClass.HTLC;
+import lnrpc.LightningOuterClass.ListChannelsResponse;
+
+/**
+ * Payloads shaped like those of a routing node with 50 channels, built from a
+ * fixed seed so every run measures the same bytes.
+ */
+final class BenchmarkFixtures {
+  static final int CHANNELS = 50;
+
+  private BenchmarkFixtures() {}
+
+  static byte[] getInfoResponse() {
+    Random random = new Random(1);
+    String pubkey = hex(random, 33);
+    GetInfoResponse.Builder info = GetInfoResponse.newBuilder()
+      .setVersion("0.18.4-beta commit=v0.18.4-beta")
+      .setCommitHash("ddeb8351684a611f6c27f16f09be75d5c039f08c")
+      .setIdentityPubkey(pubkey)
+      .setAlias("zeus-bench-node")
+      .setColor("#3399ff")
+      .setNumPendingChannels(2)
+      .setNumActiveChannels(CHANNELS - 3)
+      .setNumInactiveChannels(3)
+      .setNumPeers(CHANNELS + 4)
+      .setBlockHeight(871234)
+      .setBlockHash(hex(random, 32))
+      .setBestHeaderTimestamp(1731000000L)
+      .setSyncedToChain(true)
+      .setSyncedToGraph(true)
+      .addChains(Chain.newBuilder().setNetwork("mainnet"))
+      .addUris(pubkey + "@203.0.113.7:9735");
+    int[] featureBits = { 0, 5, 7, 9, 12, 14, 17, 19, 23, 27, 31, 45, 47, 51, 55, 2023 };
+    for (int bit : featureBits) {
+      info.putFeatures(bit, Feature.newBuilder()
+        .setName("feature-" + bit)
+        .setIsRequired(bit % 2 == 0)
+        .setIsKnown(true)
+        .build());
+    }
+    return info.build().toByteArray();
+  }
+
+  static byte[] listChannelsResponse() {
+    Random random = new Random(2);
+    ListChannelsResponse.Builder channels = ListChannelsResponse.newBuilder();
+    for (int i = 0; i < CHANNELS; i++) {
+      long capacity = 500000 + random.nextInt(9500000);
+      long local = (long) (capacity * random.nextDouble());
+      Channel.Builder channel = Channel.newBuilder()
+        .setActive(i % 17 != 0)
+        .setRemotePubkey(hex(random, 33))
+        .setChannelPoint(hex(random, 32) + ":" + random.nextInt(4))
+        .setChanId(((long) (700000 + random.nextInt(170000)) << 40) | ((long) random.nextInt(3000) << 16) | random.nextInt(4))
+        .setCapacity(capacity)
+        .setLocalBalance(local)
+        .setRemoteBalance(capacity - local - 3000)
+        .setCommitFee(2810)
+        .setCommitWeight(1116)
+        .setFeePerKw(2500)
+        .setTotalSatoshisSent(random.nextInt(50000000))
+        .setTotalSatoshisReceived(random.nextInt(50000000))
+        .setNumUpdates(random.nextInt(200000))
+        .setPrivate(i % 10 == 0)
+        .setInitiator(random.nextBoolean())
+        .setChanStatusFlags("ChanStatusDefault")
+        .setCommitmentType(CommitmentType.ANCHORS)
+        .setLifetime(random.nextInt(30000000))
+        .setUptime(random.nextInt(30000000))
+        .setLocalConstraints(constraints(capacity))
+        .setRemoteConstraints(constraints(capacity))
+        .setPeerAlias("peer-" + i)
+        .setPeerScidAlias(random.nextLong() & Long.MAX_VALUE);
+      // A busy node has a few HTLCs in flight on some channels
+      int htlcs = i % 5 == 0 ? 1 + random.nextInt(4) : 0;
+      for (int h = 0; h < htlcs; h++) {
+        channel.addPendingHtlcs(HTLC.newBuilder()
+          .setIncoming(random.nextBoolean())
+          .setAmount(1000 + random.nextInt(1000000))
+          .setHashLock(ByteString.copyFrom(bytes(random, 32)))
+          .setExpirationHeight(871234 + random.nextInt(2000))
+          .setHtlcIndex(random.nextInt(100000))
+          .setForwardingChannel(random.nextLong() & Long.MAX_VALUE)
+          .setForwardingHtlcIndex(random.nextInt(100000))
+          .setLockedIn(true));
+      }
+      channels.addChannels(channel);
+    }
+    return channels.build().toByteArray();
+  }
+
+  /**
+   * Error messages as lndmobile reports them, in both the gRPC status and the plain form.
+   */
+  static String[] errorMessages() {
+    return new String[] {
+      "rpc error: code = Unknown desc = invoice expired. Valid until 2024-11-08 10:12:44 +0000 UTC",
+      "rpc error: code = Unavailable desc = connection error: desc = \"transport: Error while dialing: dial tcp 127.0.0.1:10009: connect: connection refused\"",
+      "rpc error: code = NotFound desc = unable to find channel",
+      "wallet locked, unlock it to enable full RPC access",
+      "EOF"
+    };
+  }
+
+  static final class CashuProof {
+    final long amount;
+    final String secret;
+    final String c;
+
+    CashuProof(long amount, String secret, String c) {
+      this.amount = amount;
+      this.secret = secret;
+      this.c = c;
+    }
+  }
+
+  /**
+   * As many proofs as a token from a wallet that received a few dozen payments carries.
+   */
+  static CashuProof[] cashuProofs() {
+    Random random = new Random(3);
+    CashuProof[] proofs = new CashuProof[CHANNELS];
+    for (int i = 0; i < proofs.length; i++) {
+      proofs[i] = new CashuProof(1L << random.nextInt(12), hex(random, 32), hex(random, 33));
+    }
+    return proofs;
+  }
+
+  static String cashuEncodedToken() {
+    return "cashuB" + hex(new Random(4), 600);
+  }
+
+  private static ChannelConstraints constraints(long capacity) {
+    return ChannelConstraints.newBuilder()
+      .setCsvDelay(144)
+      .setChanReserveSat(capacity / 100)
+      .setDustLimitSat(354)
+      .setMaxPendingAmtMsat(capacity * 990)
+      .setMinHtlcMsat(1)
+      .setMaxAcceptedHtlcs(483)
+      .build();
+  }
+
+  private static byte[] bytes(Random random, int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private static String hex(Random random, int length) {
+    StringBuilder hex = new StringBuilder(length * 2);
+    for (byte b : bytes(random, length)) {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,54 @@
+package app.zeusln.zeus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import app.zeusln.zeus.cashudevkit.CashuJson;
+
+/**
+ * The org.json encoding CashuDevKitModule does for tokens (encodeToken,
+ * encodeProof) before resolving them to JS as strings, and parsing it back.
+ * Both go through CashuJson, which is compiled from the app's sources.
+ *
+ * LdkNodeModule builds WritableMaps, which are backed by native code and
+ * can't run on the JVM, so it isn't covered here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonEncodeBenchmark {
+  private BenchmarkFixtures.CashuProof[] proofs;
+  private String encoded;
+  private String json;
+
+  @Setup
+  public void setup() throws JSONException {
+    proofs = BenchmarkFixtures.cashuProofs();
+    encoded = BenchmarkFixtures.cashuEncodedToken();
+    json = encodeToken();
+  }
+
+  @Benchmark
+  public String encodeToken() throws JSONException {
+    JSONArray proofsArray = new JSONArray();
+    for (BenchmarkFixtures.CashuProof proof : proofs) {
+      proofsArray.put(CashuJson.proof(proof.amount, proof.secret, proof.c, "009a1f293253e41e"));
+    }
+    return CashuJson.token(encoded, 64L * proofs.length, "https://mint.example.com", "", "sat", proofsArray).toString();
+  }
+
+  @Benchmark
+  public JSONObject decodeToken() throws JSONException {
+    return new JSONObject(json);
+  }
+}
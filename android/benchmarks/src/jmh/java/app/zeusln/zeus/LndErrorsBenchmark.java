@@ -0,0 +1,30 @@
+package app.zeusln.zeus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Splitting lndmobile errors into error_code and error_desc, as every failed
+ * call and stream does before its error goes to JS.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LndErrorsBenchmark {
+  private final String[] messages = BenchmarkFixtures.errorMessages();
+
+  @Benchmark
+  public void parse(Blackhole blackhole) {
+    for (String message : messages) {
+      blackhole.consume(LndErrors.code(message));
+      blackhole.consume(LndErrors.desc(message));
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package app.zeusln.zeus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import lnrpc.LightningOuterClass.GetInfoResponse;
+import lnrpc.LightningOuterClass.ListChannelsResponse;
+
+/**
+ * Parsing lnd responses with the lite classes, as LndProjections, ResponseCache
+ * and StreamCursors do on every matching response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProtobufParseBenchmark {
+  private byte[] getInfo;
+  private byte[] listChannels;
+
+  @Setup
+  public void setup() {
+    getInfo = BenchmarkFixtures.getInfoResponse();
+    listChannels = BenchmarkFixtures.listChannelsResponse();
+  }
+
+  @Benchmark
+  public GetInfoResponse parseGetInfo() throws InvalidProtocolBufferException {
+    return GetInfoResponse.parseFrom(getInfo);
+  }
+
+  @Benchmark
+  public ListChannelsResponse parseListChannels() throws InvalidProtocolBufferException {
+    return ListChannelsResponse.parseFrom(listChannels);
+  }
+
+  @Benchmark
+  public byte[] serializeListChannels() throws InvalidProtocolBufferException {
+    return ListChannelsResponse.parseFrom(listChannels).toByteArray();
+  }
+}
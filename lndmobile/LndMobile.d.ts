@@ -4,6 +4,27 @@ export enum ELndMobileStatusCodes {
     STATUS_WALLET_UNLOCKED = 4
 }
 
+export interface LatencyHistogram {
+    count: number;
+    meanMs: number;
+    p50Ms: number;
+    p90Ms: number;
+    p99Ms: number;
+    p999Ms: number;
+    maxMs: number;
+}
+
+// Sent as the GossipSyncProgress event while gossipSync runs (Android).
+// download and decode are the speedloader graph being prefetched, insert is
+// lnd taking it in (and downloading it itself if there was no prefetch).
+// totalBytes is -1 while unknown.
+export interface GossipSyncProgress {
+    stage: 'download' | 'decode' | 'insert';
+    downloadedBytes: number;
+    totalBytes: number;
+    elapsedMs: number;
+}
+
 export interface ILndMobile {
     // General
     initialize(): Promise<{ data: string }>;
@@ -38,7 +59,10 @@ export interface ILndMobile {
         method: string,
         streamOnlyOnce: boolean
     ): Promise<'done'>;
-    writeToStream(method: string, payload: string): Promise<boolean>;
+    // Resolves once lnd accepted the write, rejects with ResourceExhausted when
+    // too many writes are pending on the stream
+    writeToStream(method: string, payload: string): Promise<'done'>;
+    unsubscribeStream(method: string, base64Payload: string): Promise<'done'>;
 
     // Express Graph Sync / Speedloader
     gossipSync(
@@ -46,10 +70,109 @@ export interface ILndMobile {
         lndDir: string,
         isSqlite: boolean
     ): Promise<{ data: string }>;
-    cancelGossipSync(): void;
+    // cancelled is whether a sync was running (Android); the sync itself
+    // still rejects once it has stopped
+    cancelGossipSync(): Promise<{ cancelled?: boolean }>;
 
     // Android-specific
+    reserveRequestId(): number;
+    sendCommandWithDeadline(
+        method: string,
+        base64Payload: string,
+        requestId: number,
+        // -1 for sendCommand's deadline for the method, 0 for none
+        timeoutMs: number,
+        priority: 'payment' | 'interactive' | 'bulk' | null
+    ): Promise<{ data: string }>;
+    cancelRequest(requestId: number): Promise<boolean>;
+    sendCommandProjected(
+        method: string,
+        base64Payload: string,
+        fields: string[]
+    ): Promise<{
+        fields: string[];
+        rows: any[][];
+        meta: { [k: string]: any };
+    }>;
+    setStreamBatching(
+        method: string,
+        intervalMs: number,
+        maxMessages: number
+    ): Promise<void>;
+    setStreamDeliveryPolicy(
+        method: string,
+        policy: 'lossless' | 'conflate' | 'bounded',
+        capacity: number,
+        awaitAck: boolean
+    ): Promise<void>;
+    ackStreamEvent(method: string): void;
+    getStreamDeliveryStats(): Promise<{
+        [method: string]: {
+            policy: 'lossless' | 'conflate' | 'bounded';
+            queued: number;
+            delivered: number;
+            dropped: number;
+            conflated: number;
+        };
+    }>;
+    getServiceLaneMetrics(): Promise<{
+        [lane: string]: {
+            depth: number;
+            executed: number;
+            avgWaitMs: number;
+            maxWaitMs: number;
+            avgRunMs: number;
+        };
+    }>;
+    getResponseCacheStats(): Promise<{
+        entries: number;
+        bytes: number;
+        hits: number;
+        misses: number;
+        evictions: number;
+        invalidations: number;
+        coalesced: number;
+    }>;
+    getBridgeMetrics(): Promise<{
+        [method: string]: {
+            latency: LatencyHistogram;
+            queueWait: LatencyHistogram;
+            errors: number;
+            timeouts: number;
+            requestBytes: number;
+            maxRequestBytes: number;
+            responseBytes: number;
+            maxResponseBytes: number;
+        };
+    }>;
+    setBridgeTracingEnabled(enabled: boolean): Promise<void>;
+    // Resolves with the path of a Chrome trace JSON file
+    exportBridgeTrace(windowSeconds: number): Promise<string>;
+    getPendingRequestStats(): Promise<{
+        pending: number;
+        timedOut: number;
+        cancelled: number;
+    }>;
+    setDirectCallsEnabled(enabled: boolean): Promise<boolean>;
+    DEBUG_compareCommandLatency(
+        method: string,
+        base64Payload: string,
+        iterations: number
+    ): Promise<{
+        method: string;
+        iterations: number;
+        serviceAvgMs: number;
+        serviceMinMs: number;
+        directAvgMs: number;
+        directMinMs: number;
+    }>;
     unbindLndMobileService(): Promise<void>; // TODO(hsjoberg): function looks broken
+    // Starts lnd for the embedded wallet in lndDir from
+    // MainApplication.onCreate on the next launch, with the arguments of its
+    // last successful startLnd. One wallet at a time; paused after a launch
+    // that opened another wallet until this one is started again.
+    setLndWarmStartEnabled(enabled: boolean, lndDir: string): Promise<void>;
+    isLndWarmStartEnabled(lndDir: string): Promise<boolean>;
     sendPongToLndMobileservice(): Promise<{ data: string }>;
     checkLndMobileServiceConnected(): Promise<boolean>;
     updateTranslationCache(
@@ -134,6 +257,42 @@ export interface ILndMobileTools {
     deleteTLSCerts(): Promise<boolean>;
     restartApp(): void;
     setPersistentMode(enabled: boolean): Promise<void>;
+    // Milestones are milliseconds since the boot began, keyed by name:
+    // bindRequested, serviceConnected, registerClientAck, startLndRequested,
+    // startLndResult or startLndError, state:<WalletState>, firstGetInfo
+    getStartupProfile(): Promise<{
+        boots: {
+            origin: 'process' | 'restart';
+            startedAt: number;
+            appVersion: string;
+            device: string;
+            sdk: number;
+            milestones: { [milestone: string]: number };
+        }[];
+        percentiles: {
+            [milestone: string]: {
+                count: number;
+                p50: number;
+                p90: number;
+                max: number;
+            };
+        };
+    }>;
+    clearStartupProfile(): Promise<void>;
+    getNativeJobStats(): Promise<{
+        queued: number;
+        jobs: {
+            [name: string]: {
+                running: number;
+                runs: number;
+                failures: number;
+                cancellations: number;
+                lastRunMs: number;
+                runTime: LatencyHistogram;
+                queueWait: LatencyHistogram;
+            };
+        };
+    }>;
 
     // iOS-specific
     checkICloudEnabled(): Promise<boolean>;
@@ -154,7 +154,7 @@ export interface ILndMobileInjections {
         }) => Promise<string>;
         stopLnd: () => Promise<string>;
         gossipSync: (serviceUrl: string) => Promise<{ data: string }>;
-        cancelGossipSync: () => void;
+        cancelGossipSync: () => Promise<{ cancelled?: boolean }>;
         checkICloudEnabled: () => Promise<boolean>;
         checkApplicationSupportExists: () => Promise<boolean>;
         checkLndFolderExists: (lndDir?: string) => Promise<boolean>;
@@ -11,6 +11,7 @@ import {
 } from '../utils/LndMobileUtils';
 
 import { getChanInfo, listPrivateChannels } from './channel';
+import { GossipSyncProgress } from './LndMobile';
 
 const { LndMobile, LndMobileTools } = NativeModules;
 
@@ -112,10 +113,16 @@ export const gossipSync = async (
 /**
  * @throws
  */
-export const cancelGossipSync = async () => {
-    return LndMobile.cancelGossipSync();
+export const cancelGossipSync = async (): Promise<{
+    cancelled?: boolean;
+}> => {
+    return await LndMobile.cancelGossipSync();
 };
 
+export const onGossipSyncProgress = (
+    listener: (progress: GossipSyncProgress) => void
+) => LndMobileEventEmitter.addListener('GossipSyncProgress', listener);
+
 export const checkICloudEnabled = async (): Promise<boolean> => {
     return await LndMobileTools.checkICloudEnabled();
 };
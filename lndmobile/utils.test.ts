@@ -0,0 +1,93 @@
+import {
+    encodePayload,
+    decodePayload,
+    unbatchStreamEvent,
+    projectedRowsToObjects
+} from './utils';
+
+describe('lndmobile utils', () => {
+    describe('encodePayload', () => {
+        it('encodes bytes to base64', () => {
+            const bytes = new Uint8Array([116, 101, 115, 116]);
+            expect(encodePayload(bytes)).toEqual('dGVzdA==');
+        });
+
+        it('only encodes the viewed range of a subarray', () => {
+            const backing = new Uint8Array([0, 116, 101, 115, 116, 0]);
+            expect(encodePayload(backing.subarray(1, 5))).toEqual('dGVzdA==');
+        });
+
+        it('encodes an empty payload to an empty string', () => {
+            expect(encodePayload(new Uint8Array(0))).toEqual('');
+        });
+    });
+
+    describe('decodePayload', () => {
+        it('decodes base64 to bytes', () => {
+            expect(Array.from(decodePayload('dGVzdA=='))).toEqual([
+                116, 101, 115, 116
+            ]);
+        });
+
+        it('decodes an empty string to an empty payload', () => {
+            expect(decodePayload('').length).toEqual(0);
+        });
+
+        it('round-trips arbitrary bytes', () => {
+            const bytes = new Uint8Array(256).map((_, i) => i);
+            expect(Array.from(decodePayload(encodePayload(bytes)))).toEqual(
+                Array.from(bytes)
+            );
+        });
+    });
+
+    describe('unbatchStreamEvent', () => {
+        it('wraps a single event in a list', () => {
+            expect(unbatchStreamEvent({ data: 'dGVzdA==' })).toEqual([
+                { data: 'dGVzdA==' }
+            ]);
+        });
+
+        it('unwraps a batched event in order', () => {
+            expect(
+                unbatchStreamEvent({
+                    batch: [
+                        { data: 'YQ==' },
+                        { error_code: 'Error', error_desc: 'EOF' }
+                    ]
+                })
+            ).toEqual([
+                { data: 'YQ==' },
+                { error_code: 'Error', error_desc: 'EOF' }
+            ]);
+        });
+    });
+
+    describe('projectedRowsToObjects', () => {
+        it('maps rows onto the projected field names', () => {
+            expect(
+                projectedRowsToObjects({
+                    fields: ['chan_id', 'active', 'channel.capacity'],
+                    rows: [
+                        ['123', true, '100000'],
+                        ['456', false, '200000']
+                    ],
+                    meta: {}
+                })
+            ).toEqual([
+                { chan_id: '123', active: true, 'channel.capacity': '100000' },
+                { chan_id: '456', active: false, 'channel.capacity': '200000' }
+            ]);
+        });
+
+        it('returns an empty list when there are no rows', () => {
+            expect(
+                projectedRowsToObjects({
+                    fields: ['alias'],
+                    rows: [],
+                    meta: {}
+                })
+            ).toEqual([]);
+        });
+    });
+});
@@ -1,6 +1,5 @@
-import { NativeModules } from 'react-native';
+import { NativeModules, Platform } from 'react-native';
 import * as $protobuf from 'protobufjs';
-import Base64Utils from '../utils/Base64Utils';
 
 const { LndMobile } = NativeModules;
 
@@ -22,8 +21,20 @@ export interface ISyncCommandOptions<IReq, Req, Res> {
     response: ISendResponseClass<Res>;
     method: string;
     options: IReq;
+    // Android only: reject with ETIMEDOUT if lnd hasn't replied in time,
+    // 0 for no deadline. Defaults to the deadline plain sendCommand uses:
+    // 5 minutes for reads, 1 hour for calls with side effects, where
+    // ETIMEDOUT means the outcome is unknown rather than failed.
+    timeoutMs?: number;
+    // Android only: receives the native request id, for cancelCommand
+    onRequestId?: (requestId: number) => void;
+    // Android only: overrides the method's default scheduling class.
+    // Ignored while direct calls (setDirectCallsEnabled) are in effect
+    priority?: CommandPriority;
 }
 
+export type CommandPriority = 'payment' | 'interactive' | 'bulk';
+
 export interface IWriteStreamOptions<IReq, Req> {
     request: ISendRequestClass<IReq, Req>;
     method: string;
@@ -41,6 +52,18 @@ export interface IStreamResultOptions<Res> {
     response: ISendResponseClass<Res>;
 }
 
+// The native bridge only carries strings, so protobuf bytes have to cross it
+// as base64. These helpers wrap the underlying memory in a Buffer view
+// instead of copying it, which keeps large responses (ListPayments,
+// DescribeGraph, ...) down to a single decode pass on the JS thread.
+export const encodePayload = (bytes: Uint8Array): string =>
+    Buffer.from(bytes.buffer, bytes.byteOffset, bytes.byteLength).toString(
+        'base64'
+    );
+
+export const decodePayload = (base64: string): Uint8Array =>
+    Buffer.from(base64, 'base64');
+
 /**
  * @throws
  */
@@ -48,33 +71,171 @@ export const sendCommand = async <IReq, Req, Res>({
     request,
     response,
     method,
-    options
+    options,
+    timeoutMs,
+    onRequestId,
+    priority
 }: ISyncCommandOptions<IReq, Req, Res>): Promise<Res> => {
     try {
         const instance = request.create(options);
-        const b64 = await LndMobile.sendCommand(
-            method,
-            Base64Utils.bytesToBase64(request.encode(instance).finish())
-        );
-        return response.decode(Base64Utils.base64ToBytes(b64.data || ''));
+        const payload = encodePayload(request.encode(instance).finish());
+        let b64: { data: string };
+        if (
+            Platform.OS === 'android' &&
+            (timeoutMs !== undefined || onRequestId || priority)
+        ) {
+            const requestId = LndMobile.reserveRequestId();
+            onRequestId?.(requestId);
+            b64 = await LndMobile.sendCommandWithDeadline(
+                method,
+                payload,
+                requestId,
+                // -1 keeps the native default deadline
+                timeoutMs ?? -1,
+                priority ?? null
+            );
+        } else {
+            b64 = await LndMobile.sendCommand(method, payload);
+        }
+        return response.decode(decodePayload(b64.data || ''));
     } catch (e) {
         throw e;
     }
 };
 
+/**
+ * Android only: rejects a pending sendCommand with ECANCELED.
+ * lnd may still complete the call, its reply is dropped.
+ */
+export const cancelCommand = async (requestId: number): Promise<boolean> =>
+    await LndMobile.cancelRequest(requestId);
+
+export interface IProjectedCommandOptions<IReq, Req> {
+    request: ISendRequestClass<IReq, Req>;
+    method: string;
+    options: IReq;
+    // Proto field names, nested ones as `channel.capacity`
+    fields: string[];
+}
+
+export interface IProjectedResult {
+    fields: string[];
+    // One array per item, values in the order of fields.
+    // 64-bit integers are strings, bytes are base64.
+    rows: any[][];
+    // List-level values such as last_index_offset
+    meta: { [k: string]: any };
+}
+
+/**
+ * Android only: decodes the response natively and returns just the
+ * requested fields, skipping protobuf decode/toObject on the JS thread.
+ * Supported for ListChannels, ListPayments, ListInvoices, GetInfo and
+ * PendingChannels.
+ * @throws
+ */
+export const sendCommandProjected = async <IReq, Req>({
+    request,
+    method,
+    options,
+    fields
+}: IProjectedCommandOptions<IReq, Req>): Promise<IProjectedResult> => {
+    const instance = request.create(options);
+    return await LndMobile.sendCommandProjected(
+        method,
+        encodePayload(request.encode(instance).finish()),
+        fields
+    );
+};
+
+/**
+ * Turns the compact rows of a projected response into plain objects.
+ */
+export const projectedRowsToObjects = ({
+    fields,
+    rows
+}: IProjectedResult): { [k: string]: any }[] =>
+    rows.map((row) => {
+        const item: { [k: string]: any } = {};
+        fields.forEach((field, i) => {
+            item[field] = row[i];
+        });
+        return item;
+    });
+
+export interface IStreamBatchingOptions {
+    // Flush interval, one frame by default
+    intervalMs?: number;
+    // Flush early once this many events have accumulated
+    maxMessages?: number;
+}
+
+export interface IStreamEvent {
+    data?: string;
+    error_code?: string;
+    error_desc?: string;
+}
+
+export interface IStreamDeliveryOptions {
+    // lossless: every event (default), conflate: latest value only,
+    // bounded: at most `capacity` undelivered events, oldest dropped
+    policy: 'lossless' | 'conflate' | 'bounded';
+    capacity?: number;
+    // Deliver one event at a time, the next one after ackStreamEvent
+    awaitAck?: boolean;
+}
+
 export const sendStreamCommand = async <IReq, Req>(
     { request, method, options }: IStreamCommandOptions<IReq, Req>,
-    streamOnlyOnce: boolean = false
+    streamOnlyOnce: boolean = false,
+    batching?: IStreamBatchingOptions,
+    delivery?: IStreamDeliveryOptions
 ): Promise<string> => {
+    if (delivery && Platform.OS === 'android') {
+        await LndMobile.setStreamDeliveryPolicy(
+            method,
+            delivery.policy,
+            delivery.capacity ?? 1,
+            delivery.awaitAck ?? false
+        );
+    }
+    if (batching && Platform.OS === 'android') {
+        // Listeners for this method then receive { batch: IStreamEvent[] },
+        // see unbatchStreamEvent
+        await LndMobile.setStreamBatching(
+            method,
+            batching.intervalMs ?? 16,
+            batching.maxMessages ?? 100
+        );
+    }
     const instance = request.create(options);
     const response = await LndMobile.sendStreamCommand(
         method,
-        Base64Utils.bytesToBase64(request.encode(instance).finish()),
+        encodePayload(request.encode(instance).finish()),
         streamOnlyOnce
     );
     return response;
 };
 
+/**
+ * Android only: stops delivery of a stream started by sendStreamCommand with
+ * the same method and options. Other subscribers to it are unaffected.
+ */
+export const unsubscribeStreamCommand = async <IReq, Req>({
+    request,
+    method,
+    options
+}: IStreamCommandOptions<IReq, Req>): Promise<void> => {
+    if (Platform.OS !== 'android') {
+        return;
+    }
+    const instance = request.create(options);
+    await LndMobile.unsubscribeStream(
+        method,
+        encodePayload(request.encode(instance).finish())
+    );
+};
+
 export const sendBidiStreamCommand = async (
     method: string,
     streamOnlyOnce: boolean = false
@@ -94,13 +255,30 @@ export const writeToStream = async <IReq, Req>({
     const instance = request.create(options);
     await LndMobile.writeToStream(
         method,
-        Base64Utils.bytesToBase64(request.encode(instance).finish())
+        encodePayload(request.encode(instance).finish())
     );
 };
 
+/**
+ * Android only: lets the next event of an awaitAck stream through.
+ */
+export const ackStreamEvent = (method: string) => {
+    if (Platform.OS === 'android') {
+        LndMobile.ackStreamEvent(method);
+    }
+};
+
+/**
+ * Normalizes a stream event that may have been batched natively
+ * into the list of individual events it carries.
+ */
+export const unbatchStreamEvent = (
+    event: IStreamEvent | { batch: IStreamEvent[] }
+): IStreamEvent[] => ('batch' in event ? event.batch : [event]);
+
 export const decodeStreamResult = <Res>({
     base64Result,
     response
 }: IStreamResultOptions<Res>): Res => {
-    return response.decode(Base64Utils.base64ToBytes(base64Result));
+    return response.decode(decodePayload(base64Result));
 };
@@ -348,7 +348,9 @@ export async function expressGraphSync() {
         syncStore.waitForExpressGraphSyncEnd().then(() => {
             // call cancellation to LND here
             console.log('Express graph sync cancelling...');
-            cancelGossipSync();
+            cancelGossipSync().catch((error) =>
+                console.log('Express graph sync cancellation failed', error)
+            );
             console.log('Express graph sync cancelled...');
             resolve(true);
         });